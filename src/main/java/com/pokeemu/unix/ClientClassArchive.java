@@ -0,0 +1,127 @@
+package com.pokeemu.unix;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+import com.pokeemu.unix.updater.FeedManager;
+import com.pokeemu.unix.updater.UpdateFile;
+
+/**
+ * Manages the dynamic class-data sharing archive of the game client. The first launch of a client
+ * revision records the loaded classes at exit, later launches map them instead of loading the jar cold.
+ */
+final class ClientClassArchive
+{
+	private static final String ARCHIVE_DIR = ".cds";
+	private static final String ARCHIVE_PREFIX = "client-";
+	private static final String ARCHIVE_SUFFIX = ".jsa";
+
+	// Dynamic archives only hold classes from the class path, keep in sync with LauncherUtils.buildJvmArgs
+	private static final List<String> CLASS_PATH = List.of("PokeMMO.exe");
+
+	private ClientClassArchive()
+	{
+	}
+
+	static List<String> getJvmArgs(String pokemmoDir, String jrePath)
+	{
+		if(System.getenv("POKEMMO_NOCDS") != null)
+		{
+			return List.of();
+		}
+
+		try
+		{
+			Path archiveDir = Path.of(pokemmoDir, ARCHIVE_DIR);
+			Path archive = archiveDir.resolve(ARCHIVE_PREFIX + getArchiveKey(pokemmoDir, jrePath) + ARCHIVE_SUFFIX);
+
+			if(Files.isRegularFile(archive) && Files.size(archive) > 0)
+			{
+				// AutoCreateSharedArchive makes the JVM replace an archive it can not use instead of silently running cold
+				return List.of("-XX:SharedArchiveFile=" + archive, "-XX:+AutoCreateSharedArchive");
+			}
+
+			Files.createDirectories(archiveDir);
+			deleteOtherArchives(archiveDir, archive);
+
+			System.out.println("Recording client class archive " + archive.getFileName() + " on this launch");
+			return List.of("-XX:ArchiveClassesAtExit=" + archive);
+		}
+		catch(IOException | NoSuchAlgorithmException e)
+		{
+			System.err.println("Launching without client class archive: " + e.getMessage());
+			return List.of();
+		}
+	}
+
+	/**
+	 * Ties the archive to the client revision, the class path files and the JVM that will map it.
+	 */
+	private static String getArchiveKey(String pokemmoDir, String jrePath) throws IOException, NoSuchAlgorithmException
+	{
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+		Path revisionFile = Path.of(pokemmoDir, "revision.txt");
+		String revision = Files.exists(revisionFile) ? Files.readString(revisionFile).strip() : "unknown";
+		update(digest, revision);
+
+		List<UpdateFile> files = FeedManager.getFiles();
+		for(String name : CLASS_PATH)
+		{
+			String fileHash = null;
+			for(UpdateFile file : files)
+			{
+				if(file.name.equals(name))
+				{
+					fileHash = file.sha256;
+					break;
+				}
+			}
+
+			// Without a feed, e.g. an offline launch, fall back to what the file system knows about the jar
+			Path path = Path.of(pokemmoDir, name);
+			if(fileHash == null && Files.exists(path))
+			{
+				fileHash = Files.size(path) + "@" + Files.getLastModifiedTime(path).toMillis();
+			}
+
+			update(digest, name + "=" + fileHash);
+		}
+
+		update(digest, jrePath);
+		update(digest, System.getProperty("java.vm.version"));
+
+		return HexFormat.of().formatHex(digest.digest(), 0, 8);
+	}
+
+	private static void update(MessageDigest digest, String value)
+	{
+		digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) '\n');
+	}
+
+	private static void deleteOtherArchives(Path archiveDir, Path keep)
+	{
+		try(DirectoryStream<Path> archives = Files.newDirectoryStream(archiveDir, ARCHIVE_PREFIX + "*" + ARCHIVE_SUFFIX))
+		{
+			for(Path archive : archives)
+			{
+				if(!archive.equals(keep))
+				{
+					Files.deleteIfExists(archive);
+				}
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Failed to remove outdated client class archives: " + e.getMessage());
+		}
+	}
+}
\ No newline at end of file
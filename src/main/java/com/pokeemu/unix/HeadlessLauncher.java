@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -12,8 +13,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import com.pokeemu.unix.config.Config;
 import com.pokeemu.unix.updater.FeedManager;
+import com.pokeemu.unix.updater.UpdaterService;
 
 public class HeadlessLauncher
 {
@@ -26,15 +27,15 @@ public class HeadlessLauncher
 	private volatile ScheduledExecutorService feedMonitor;
 	private volatile CompletableFuture<Boolean> feedLoadFuture;
 
+	/**
+	 * Expects the config to be loaded and the directories set up, see {@link Main}
+	 */
 	public boolean tryLaunchWithoutUI()
 	{
 		try
 		{
 			System.out.println("Attempting headless launch...");
 
-			Config.load();
-			LauncherUtils.setupDirectories();
-
 			if(!LauncherUtils.checkJavaVersion())
 			{
 				setNeedsUI("Java version incompatible");
@@ -75,6 +76,7 @@ public class HeadlessLauncher
 			try
 			{
 				LauncherUtils.launchGame();
+				finishOptionalDownloads();
 				return true;
 			}
 			catch(IOException e)
@@ -98,6 +100,27 @@ public class HeadlessLauncher
 		}
 	}
 
+	/**
+	 * Downloads missing or damaged optional content behind the running game, it is installed on the next start
+	 */
+	private void finishOptionalDownloads()
+	{
+		UpdaterService updater = new UpdaterService(null, new FeedManager.HeadlessProgressReporter());
+		updater.startOptionalCheck();
+		CompletableFuture<Void> optionalDownloads = updater.detachOptionalDownloads();
+		updater.shutdown();
+
+		try
+		{
+			optionalDownloads.join();
+		}
+		catch(CompletionException e)
+		{
+			// The game is already running, the next start retries
+			System.err.println("Failed to download optional content: " + e.getCause());
+		}
+	}
+
 	private boolean downloadFeedsWithTimeout()
 	{
 		boolean success = false;
@@ -10,19 +10,23 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executors;
 
 import com.pokeemu.unix.config.Config;
+import com.pokeemu.unix.enums.DownloadPriority;
 import com.pokeemu.unix.updater.FeedManager;
 import com.pokeemu.unix.updater.FeedSocketServer;
 import com.pokeemu.unix.updater.UpdateFile;
 import com.pokeemu.unix.util.DisplayServerManager;
-import com.pokeemu.unix.util.Util;
+import com.pokeemu.unix.util.GameJvmTuner;
 
 public class LauncherUtils
 {
+	// Response bodies are handed to subscribers on virtual threads, so concurrent downloads don't each pin a thread
 	public static final HttpClient httpClient = HttpClient.newBuilder()
 			.followRedirects(HttpClient.Redirect.NORMAL)
 			.connectTimeout(Duration.ofSeconds(20))
+			.executor(Executors.newVirtualThreadPerTaskExecutor())
 			.build();
 
 	public static final String snapcraft = System.getenv("POKEMMO_IS_SNAPPED");
@@ -134,15 +138,14 @@ public class LauncherUtils
 
 		for(UpdateFile file : FeedManager.getFiles())
 		{
-			boolean isNativeLibraryForOtherPlatform = isNativeLibraryForOtherPlatform(file.name);
-
-			if(file.only_if_not_exists)
+			// The game starts without optional content, including other platforms' natives
+			if(file.only_if_not_exists || file.getPriority() == DownloadPriority.OPTIONAL)
 			{
 				continue;
 			}
 
 			File f = getFile(file.name);
-			if(!f.exists() && !isNativeLibraryForOtherPlatform)
+			if(!f.exists())
 			{
 				return false;
 			}
@@ -152,21 +155,44 @@ public class LauncherUtils
 				continue;
 			}
 
-			if(isNativeLibraryForOtherPlatform)
+			if(!file.isCopyValid(f, false))
 			{
-				continue;
+				return false;
 			}
+		}
 
-			String checksumSha256 = file.sha256;
-			String actualSha256 = Util.calculateHash("SHA-256", f);
+		return true;
+	}
+
+	/**
+	 * Checked apart from {@link #isPokemmoValid()}, the game starts without these and they download behind it
+	 *
+	 * @return the optional files which are missing or damaged
+	 */
+	public static List<UpdateFile> getInvalidOptionalFiles()
+	{
+		List<UpdateFile> invalid = new ArrayList<>();
+		if(System.getenv("POKEMMO_NOVERIFY") != null)
+		{
+			return invalid;
+		}
 
-			if(!checksumSha256.equalsIgnoreCase(actualSha256))
+		for(UpdateFile file : FeedManager.getFiles())
+		{
+			if(file.getPriority() != DownloadPriority.OPTIONAL || !file.shouldDownload()
+					|| isNativeLibraryForOtherPlatform(file.name))
 			{
-				return false;
+				continue;
+			}
+
+			File f = getFile(file.name);
+			if(!f.exists() || (!file.only_if_not_exists && !file.isCopyValid(f, false)))
+			{
+				invalid.add(file);
 			}
 		}
 
-		return true;
+		return invalid;
 	}
 
 	public static boolean isNativeLibraryForOtherPlatform(String filename)
@@ -193,10 +219,23 @@ public class LauncherUtils
 		args.add(jrePath);
 
 		args.add("-XX:+IgnoreUnrecognizedVMOptions");
-		args.add("-XX:+UseZGC");
-		args.add("-XX:+ZGenerational");
-		args.add("-Xms192M");
-		args.add("-Xmx" + Config.HARD_MAX_MEMORY_MB + "M");
+
+		if(Config.ADAPTIVE_JVM_TUNING_ENABLED)
+		{
+			args.addAll(GameJvmTuner.getRecommendation(pokemmoDir).toJvmArgs());
+
+			if(Config.JVM_GC_HISTORY_ENABLED)
+			{
+				args.add(GameJvmTuner.getGcLogArg(pokemmoDir));
+			}
+		}
+		else
+		{
+			args.add("-XX:+UseZGC");
+			args.add("-XX:+ZGenerational");
+			args.add("-Xms192M");
+			args.add("-Xmx" + Config.HARD_MAX_MEMORY_MB + "M");
+		}
 
 		if(Config.AES_INTRINSICS_WORKAROUND_ENABLED)
 		{
@@ -207,6 +246,8 @@ public class LauncherUtils
 
 		args.add("-Dfile.encoding=UTF-8");
 
+		args.addAll(ClientClassArchive.getJvmArgs(pokemmoDir, jrePath));
+
 		args.addAll(Arrays.asList("-cp", "PokeMMO.exe", "com.pokeemu.client.Client"));
 
 		return args;
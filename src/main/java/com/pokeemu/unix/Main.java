@@ -0,0 +1,118 @@
+package com.pokeemu.unix;
+
+import java.util.concurrent.ExecutionException;
+
+import com.pokeemu.unix.config.Config;
+import com.pokeemu.unix.updater.FeedManager;
+import com.pokeemu.unix.updater.MirrorWarmup;
+import com.pokeemu.unix.updater.TempFileManager;
+import com.pokeemu.unix.updater.UpdateTransaction;
+import com.pokeemu.unix.updater.VerificationIndex;
+import com.pokeemu.unix.util.DisplayServerManager;
+import com.pokeemu.unix.util.GnomeThemeDetector;
+
+/**
+ * Entry point. Kept apart from {@link UnixInstaller} so the headless launch stays pure Java:
+ * loading UnixInstaller pulls in imgui and LWJGL, which only happens once the UI is really needed.
+ * The startup steps run as a {@link StartupGraph}, the feed download starts as soon as the config is read.
+ */
+public class Main
+{
+	public static void main(String[] args)
+	{
+		boolean forceUi = false;
+		for(String arg : args)
+		{
+			if(arg.equals("--force-ui"))
+			{
+				forceUi = true;
+				break;
+			}
+		}
+
+		Throwable headlessException = null;
+
+		try(StartupGraph startup = new StartupGraph())
+		{
+			// Mirror hosts don't depend on anything, resolve them and open connections while the rest starts up
+			startup.add("warmup", MirrorWarmup::run);
+
+			StartupGraph.Node<Void> config = startup.add("config", Config::load);
+			StartupGraph.Node<Void> display = startup.add("display", DisplayServerManager::logDisplayServerInfo);
+			// May fork the desktop's helpers, nothing waits on it: the UI starts from the cached theme
+			startup.add("theme", GnomeThemeDetector::refreshIfStale);
+
+			StartupGraph.Node<Void> directories = startup.add("directories", () -> {
+				LauncherUtils.setupDirectories();
+				UpdateTransaction.recoverInterrupted(LauncherUtils.getPokemmoDir());
+			}, config);
+			startup.add("index", () -> VerificationIndex.preload(LauncherUtils.getPokemmoDir()), directories);
+			startup.add("temp-cleanup", () -> TempFileManager.cleanupOrphanedFiles(LauncherUtils.getPokemmoDir()),
+					directories);
+
+			if(!forceUi)
+			{
+				// The mirrors only depend on the update channel, the headless launch picks up this in-flight load
+				startup.add("feeds", () -> FeedManager.loadAsync(new FeedManager.HeadlessProgressReporter()).get(),
+						config);
+
+				HeadlessLauncher headless = new HeadlessLauncher();
+				StartupGraph.Node<Boolean> launch = startup.add("headless", headless::tryLaunchWithoutUI,
+						directories, display);
+
+				try
+				{
+					if(launch.get())
+					{
+						startup.logTimings();
+						System.exit(UnixInstaller.EXIT_CODE_SUCCESS);
+					}
+
+					headlessException = headless.getNetworkException();
+				}
+				catch(ExecutionException e)
+				{
+					headlessException = e.getCause();
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					headlessException = e;
+				}
+
+				System.out.println("=================================================");
+				System.out.println("[INFO] Launching installer UI");
+				System.out.println("Reason: " + headless.getUIReason());
+				if(headlessException != null)
+				{
+					System.out.println("Exception: " + headlessException);
+				}
+				System.out.println("=================================================");
+			}
+			else
+			{
+				System.out.println("=================================================");
+				System.out.println("[INFO] UI mode forced via --force-ui flag");
+				System.out.println("=================================================");
+			}
+
+			// The UI relies on the directories and on any interrupted update having been rolled forward
+			try
+			{
+				directories.get();
+			}
+			catch(ExecutionException e)
+			{
+				System.err.println("Startup step failed: " + e.getCause());
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+
+			startup.logTimings();
+		}
+
+		UnixInstaller.launchUI(forceUi, headlessException);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,137 @@
+package com.pokeemu.unix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the independent parts of startup concurrently, each step starting as soon as the steps it names as
+ * dependencies have finished. A failed dependency fails every step that depends on it.
+ * Every step is timed relative to the creation of the graph so slow startups can be diagnosed from the log.
+ */
+final class StartupGraph implements AutoCloseable
+{
+	final class Node<T>
+	{
+		private final String name;
+		private final CompletableFuture<T> future;
+
+		private volatile long startNanos = -1;
+		private volatile long endNanos = -1;
+
+		private Node(String name, Callable<T> task, Node<?>[] dependencies)
+		{
+			this.name = name;
+
+			CompletableFuture<?>[] dependencyFutures = new CompletableFuture<?>[dependencies.length];
+			for(int i = 0; i < dependencies.length; i++)
+			{
+				dependencyFutures[i] = dependencies[i].future;
+			}
+
+			this.future = CompletableFuture.allOf(dependencyFutures).thenApplyAsync(ignored -> run(task), executor);
+		}
+
+		private T run(Callable<T> task)
+		{
+			startNanos = System.nanoTime();
+			try
+			{
+				return task.call();
+			}
+			catch(Exception e)
+			{
+				System.err.println("Startup step " + name + " failed: " + e);
+				throw new CompletionException(e);
+			}
+			finally
+			{
+				endNanos = System.nanoTime();
+			}
+		}
+
+		/**
+		 * Waits for the step and everything it depends on
+		 *
+		 * @throws ExecutionException with the original failure of this step or of one of its dependencies
+		 */
+		T get() throws ExecutionException, InterruptedException
+		{
+			return future.get();
+		}
+
+		private String describe()
+		{
+			if(startNanos < 0)
+			{
+				return name + ": " + (future.isCompletedExceptionally() ? "skipped, a dependency failed" : "waiting");
+			}
+
+			String started = "started +" + toMillis(startNanos - graphStartNanos) + " ms";
+			if(endNanos < 0)
+			{
+				return name + ": " + started + ", still running";
+			}
+
+			return name + ": " + started + ", took " + toMillis(endNanos - startNanos) + " ms"
+					+ (future.isCompletedExceptionally() ? " (failed)" : "");
+		}
+	}
+
+	private final long graphStartNanos = System.nanoTime();
+
+	// Steps mostly wait on the network or on child processes, a virtual thread each is enough
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final List<Node<?>> nodes = new ArrayList<>();
+
+	<T> Node<T> add(String name, Callable<T> task, Node<?>... dependencies)
+	{
+		Node<T> node = new Node<>(name, task, dependencies);
+		synchronized(nodes)
+		{
+			nodes.add(node);
+		}
+		return node;
+	}
+
+	Node<Void> add(String name, Runnable task, Node<?>... dependencies)
+	{
+		return add(name, () -> {
+			task.run();
+			return null;
+		}, dependencies);
+	}
+
+	void logTimings()
+	{
+		System.out.println("=================================================");
+		System.out.println("[INFO] Startup timings (+" + toMillis(System.nanoTime() - graphStartNanos) + " ms):");
+		synchronized(nodes)
+		{
+			for(Node<?> node : nodes)
+			{
+				System.out.println("  " + node.describe());
+			}
+		}
+		System.out.println("=================================================");
+	}
+
+	/**
+	 * Steps still running are left to finish on their own, nothing waits for them.
+	 */
+	@Override
+	public void close()
+	{
+		executor.shutdown();
+	}
+
+	private static long toMillis(long nanos)
+	{
+		return nanos / 1_000_000;
+	}
+}
\ No newline at end of file
@@ -8,6 +8,7 @@ import java.nio.IntBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -30,6 +31,7 @@ import com.pokeemu.unix.ui.ImGuiThreadBridge;
 import com.pokeemu.unix.ui.LocalizationManager;
 import com.pokeemu.unix.ui.MainWindow;
 import com.pokeemu.unix.ui.MessageDialog;
+import com.pokeemu.unix.ui.RenderScheduler;
 import com.pokeemu.unix.updater.FeedManager;
 import com.pokeemu.unix.updater.UpdaterService;
 import com.pokeemu.unix.util.DisplayServerManager;
@@ -57,6 +59,7 @@ public class UnixInstaller extends Application
 	private MainWindow mainWindow;
 	private ConfigWindow configWindow;
 	private ImGuiThreadBridge threadBridge;
+	private final RenderScheduler renderScheduler = new RenderScheduler();
 	private ErrorDialog errorDialog;
 
 	private final AtomicBoolean isLaunching = new AtomicBoolean(false);
@@ -178,9 +181,18 @@ public class UnixInstaller extends Application
 		ImGui.getIO().setIniFilename(null);
 
 		LocalizationManager.instance.initializeFonts();
-		ImGuiStyleManager.applySystemTheme();
 
-		threadBridge = new ImGuiThreadBridge();
+		threadBridge = new ImGuiThreadBridge(renderScheduler);
+
+		// Subscribe before reading the cached theme so a detection finishing in between isn't missed
+		GnomeThemeDetector.addListener(dark -> {
+			ImGuiThreadBridge bridge = threadBridge;
+			if(bridge != null)
+			{
+				bridge.asyncExec(() -> ImGuiStyleManager.applyTheme(dark));
+			}
+		});
+		ImGuiStyleManager.applySystemTheme();
 		mainWindow = new MainWindow(this, threadBridge, WINDOW_WIDTH, WINDOW_HEIGHT);
 		configWindow = new ConfigWindow(this);
 		errorDialog = new ErrorDialog(this);
@@ -211,6 +223,18 @@ public class UnixInstaller extends Application
 		}
 	}
 
+	@Override
+	protected void run()
+	{
+		while(!GLFW.glfwWindowShouldClose(handle))
+		{
+			// Downloads and launches animate every frame; otherwise sleep until input or a state change
+			renderScheduler.awaitFrame(isUpdating.get() || isLaunching.get());
+			LocalizationManager.instance.rebuildFontsIfNeeded(imGuiGl3);
+			runFrame();
+		}
+	}
+
 	@Override
 	public void process()
 	{
@@ -310,8 +334,6 @@ public class UnixInstaller extends Application
 		backgroundExecutor.submit(() -> {
 			try
 			{
-				LauncherUtils.setupDirectories();
-
 				if(Config.hasConfigurationErrors())
 				{
 					String errors = Config.getConfigurationErrors();
@@ -387,6 +409,7 @@ public class UnixInstaller extends Application
 				{
 					threadBridge.addDetail(Config.getString("status.check_success"), 90);
 					threadBridge.setStatus(Config.getString("status.ready"), 100);
+					updaterService.startOptionalCheck();
 					mainWindow.setCanStart(true);
 				}
 			}
@@ -444,12 +467,22 @@ public class UnixInstaller extends Application
 
 				System.out.println("Game process launched successfully, PID: " + gameProcess.pid());
 
+				// Taken before the window is disposed, which shuts the updater down
+				CompletableFuture<Void> optionalDownloads = updaterService.detachOptionalDownloads();
+
 				threadBridge.asyncExec(() -> {
 					System.out.println("Closing launcher UI for socket transfer...");
 					disposeWindow();
 				});
 
 				LauncherUtils.waitForSocketCompletion();
+
+				if(!optionalDownloads.isDone())
+				{
+					System.out.println("Finishing optional content downloads behind the game...");
+					optionalDownloads.join();
+				}
+
 				System.exit(EXIT_CODE_SUCCESS);
 			}
 			catch(IOException e)
@@ -543,59 +576,24 @@ public class UnixInstaller extends Application
 
 	public static void main(String[] args)
 	{
-		for(String arg : args)
-		{
-			if(arg.equals("--force-ui"))
-			{
-				FORCE_UI = true;
-				QUICK_AUTOSTART = false;
-				break;
-			}
-		}
-
-		Config.load();
-		detectAndLogDisplayServer();
-
-		if(!FORCE_UI)
-		{
-			HeadlessLauncher headless = new HeadlessLauncher();
-			try
-			{
-				if(headless.tryLaunchWithoutUI())
-				{
-					System.exit(EXIT_CODE_SUCCESS);
-				}
-
-				headlessException = headless.getNetworkException();
-			}
-			catch(Exception e)
-			{
-				headlessException = e;
-			}
+		Main.main(args);
+	}
 
-			System.out.println("=================================================");
-			System.out.println("[INFO] Launching installer UI");
-			System.out.println("Reason: " + headless.getUIReason());
-			if(headlessException != null)
-			{
-				System.out.println("Exception: " + headlessException);
-			}
-			System.out.println("=================================================");
-		}
-		else
+	/**
+	 * Starts the installer UI. Nothing before this point loads imgui, LWJGL or GLFW.
+	 *
+	 * @param headlessFailure why the headless launch gave up, shown to the user instead of auto-starting
+	 */
+	static void launchUI(boolean forceUi, Throwable headlessFailure)
+	{
+		if(forceUi)
 		{
-			System.out.println("=================================================");
-			System.out.println("[INFO] UI mode forced via --force-ui flag");
-			System.out.println("=================================================");
+			FORCE_UI = true;
+			QUICK_AUTOSTART = false;
 		}
 
+		headlessException = headlessFailure;
+
 		launch(new UnixInstaller());
 	}
-
-	private static void detectAndLogDisplayServer()
-	{
-
-		DisplayServerManager.logDisplayServerInfo();
-		boolean isDarkTheme = GnomeThemeDetector.isDark();
-		System.out.println("Theme Detection: " + (isDarkTheme ? "Dark" : "Light"));
-	}}
\ No newline at end of file
+}
\ No newline at end of file
@@ -6,10 +6,14 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.pokeemu.unix.UnixInstaller;
 import com.pokeemu.unix.enums.PokeMMOLocale;
@@ -29,9 +33,17 @@ public class Config
 
 	public static PokeMMOLocale ACTIVE_LOCALE = PokeMMOLocale.getDefaultLocale();
 	private static ResourceBundle STRINGS = ACTIVE_LOCALE.getStrings();
+	// Compiled patterns of the active locale, replaced whenever STRINGS changes
+	private static volatile Map<String, MessageFormat> FORMATS = new ConcurrentHashMap<>();
 
 	public static boolean AES_INTRINSICS_WORKAROUND_ENABLED = true;
 
+	public static boolean ADAPTIVE_JVM_TUNING_ENABLED = false;
+	public static boolean JVM_GC_HISTORY_ENABLED = false;
+
+	// Path prefixes of game assets the player can do without, downloaded in the background after the rest
+	public static List<String> OPTIONAL_CONTENT = List.of();
+
 	private static boolean configHadErrors = false;
 	private static StringBuilder configErrors = new StringBuilder();
 
@@ -171,6 +183,19 @@ public class Config
 				configHadErrors = true;
 				AES_INTRINSICS_WORKAROUND_ENABLED = true;
 			}
+
+			ADAPTIVE_JVM_TUNING_ENABLED = Boolean.parseBoolean(props.getProperty("adaptive_jvm_tuning", "false"));
+			JVM_GC_HISTORY_ENABLED = Boolean.parseBoolean(props.getProperty("jvm_gc_history", "false"));
+
+			List<String> optionalContent = new ArrayList<>();
+			for(String prefix : props.getProperty("optional_content", "").split(","))
+			{
+				if(!prefix.isBlank())
+				{
+					optionalContent.add(prefix.strip());
+				}
+			}
+			OPTIONAL_CONTENT = List.copyOf(optionalContent);
 		}
 		catch(Exception e)
 		{
@@ -182,6 +207,7 @@ public class Config
 		}
 
 		STRINGS = ACTIVE_LOCALE.getStrings();
+		FORMATS = new ConcurrentHashMap<>();
 	}
 
 	public static void save()
@@ -192,6 +218,9 @@ public class Config
 		props.put("max_mem_hard", Short.toString(HARD_MAX_MEMORY_MB));
 		props.put("launcher_locale", ACTIVE_LOCALE.getLangTag());
 		props.put("networking_corruption_workaround", Boolean.toString(AES_INTRINSICS_WORKAROUND_ENABLED));
+		props.put("adaptive_jvm_tuning", Boolean.toString(ADAPTIVE_JVM_TUNING_ENABLED));
+		props.put("jvm_gc_history", Boolean.toString(JVM_GC_HISTORY_ENABLED));
+		props.put("optional_content", String.join(",", OPTIONAL_CONTENT));
 
 		File config_dir = new File(getConfigHome());
 		if(config_dir.exists() || config_dir.mkdir())
@@ -216,10 +245,11 @@ public class Config
 	{
 		ACTIVE_LOCALE = target;
 		STRINGS = target.getStrings();
+		FORMATS = new ConcurrentHashMap<>();
 		save();
 	}
 
-	private static String getConfigHome()
+	public static String getConfigHome()
 	{
 		String config_home = System.getenv("SNAP_USER_COMMON");
 		if(config_home == null)
@@ -246,7 +276,13 @@ public class Config
 	{
 		try
 		{
-			return MessageFormat.format(STRINGS.getString(key), params);
+			MessageFormat format = FORMATS.computeIfAbsent(key, k -> new MessageFormat(STRINGS.getString(k)));
+
+			// MessageFormat is not thread safe, workers and the render thread may share an instance
+			synchronized(format)
+			{
+				return format.format(params);
+			}
 		}
 		catch(MissingResourceException | NullPointerException e)
 		{
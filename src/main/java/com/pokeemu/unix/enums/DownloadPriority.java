@@ -0,0 +1,20 @@
+package com.pokeemu.unix.enums;
+
+/**
+ * Download order of the update's files, the declaration order is the order they are fetched in
+ */
+public enum DownloadPriority
+{
+	/**
+	 * The client, its libraries and its bookkeeping, the game can't start without them
+	 */
+	LAUNCH_CRITICAL,
+	/**
+	 * Game data loaded once the client is running
+	 */
+	ASSET,
+	/**
+	 * Content the game runs without
+	 */
+	OPTIONAL
+}
\ No newline at end of file
@@ -1,9 +1,9 @@
 package com.pokeemu.unix.enums;
 
-import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 public enum PokeMMOLocale
@@ -26,15 +26,12 @@ public enum PokeMMOLocale
 	private final boolean language_is_selectable;
 
 	public static final PokeMMOLocale[] ENABLED_LANGUAGES;
-	public static final Map<PokeMMOLocale, ResourceBundle> RESOURCES = new HashMap<>();
+	// Bundles are loaded the first time a locale is used, most launches only ever need one
+	private static final Map<PokeMMOLocale, ResourceBundle> RESOURCES = new ConcurrentHashMap<>();
 
 	static
 	{
 		ENABLED_LANGUAGES = Stream.of(values()).filter(PokeMMOLocale::isEnabled).toArray(PokeMMOLocale[]::new);
-		for(var v : ENABLED_LANGUAGES)
-		{
-			RESOURCES.put(v, ResourceBundle.getBundle("MessagesBundle", Locale.forLanguageTag(v.getLangTag())));
-		}
 	}
 
 	PokeMMOLocale(String display_name, String lang_tag, boolean language_is_selectable)
@@ -61,7 +58,9 @@ public enum PokeMMOLocale
 
 	public ResourceBundle getStrings()
 	{
-		return RESOURCES.getOrDefault(this, RESOURCES.get(PokeMMOLocale.en));
+		PokeMMOLocale locale = isEnabled() ? this : PokeMMOLocale.en;
+		return RESOURCES.computeIfAbsent(locale,
+				v -> ResourceBundle.getBundle("MessagesBundle", Locale.forLanguageTag(v.getLangTag())));
 	}
 
 	public static PokeMMOLocale getFromString(String value)
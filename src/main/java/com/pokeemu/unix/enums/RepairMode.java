@@ -0,0 +1,50 @@
+package com.pokeemu.unix.enums;
+
+public enum RepairMode
+{
+	/**
+	 * Trusts files whose size and modification time still match the verification index and only hashes the rest.
+	 * Leaves the game's caches alone.
+	 */
+	QUICK("config.repair_mode.quick"),
+	/**
+	 * Hashes every file in the feed
+	 */
+	FULL("config.repair_mode.full"),
+	/**
+	 * Hashes every file in the feed and reports files in the install which are not part of it
+	 */
+	DEEP("config.repair_mode.deep");
+
+	private final String message_key;
+
+	RepairMode(String message_key)
+	{
+		this.message_key = message_key;
+	}
+
+	public String getMessageKey()
+	{
+		return message_key;
+	}
+
+	public boolean trustsIndex()
+	{
+		return this == QUICK;
+	}
+
+	public boolean usesAuthoritativeHash()
+	{
+		return this != QUICK;
+	}
+
+	public boolean clearsCaches()
+	{
+		return this != QUICK;
+	}
+
+	public boolean reportsStrayFiles()
+	{
+		return this == DEEP;
+	}
+}
\ No newline at end of file
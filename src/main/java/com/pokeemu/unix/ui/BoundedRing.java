@@ -0,0 +1,110 @@
+package com.pokeemu.unix.ui;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free bounded queue for many producers and a single consumer.
+ * Each slot carries a sequence number telling producers and the consumer whose turn it is,
+ * so offering never blocks and simply fails once the ring is full.
+ */
+final class BoundedRing<E>
+{
+	private final Object[] elements;
+	private final AtomicLongArray sequences;
+	private final int mask;
+
+	private final AtomicLong tail = new AtomicLong();
+	// Only read and written by the consumer
+	private long head = 0;
+
+	BoundedRing(int capacity)
+	{
+		if(Integer.bitCount(capacity) != 1)
+		{
+			throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+		}
+
+		elements = new Object[capacity];
+		sequences = new AtomicLongArray(capacity);
+		mask = capacity - 1;
+
+		for(int i = 0; i < capacity; i++)
+		{
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * @return false if the ring is full, the element is not queued
+	 */
+	boolean offer(E element)
+	{
+		long position = tail.get();
+		while(true)
+		{
+			int index = (int) (position & mask);
+			long difference = sequences.get(index) - position;
+
+			if(difference == 0)
+			{
+				if(tail.compareAndSet(position, position + 1))
+				{
+					elements[index] = element;
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			}
+			else if(difference < 0)
+			{
+				return false;
+			}
+			else
+			{
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Consumer only.
+	 */
+	@SuppressWarnings("unchecked")
+	E poll()
+	{
+		int index = (int) (head & mask);
+		if(sequences.get(index) != head + 1)
+		{
+			return null;
+		}
+
+		E element = (E) elements[index];
+		elements[index] = null;
+		sequences.set(index, head + elements.length);
+		head++;
+
+		return element;
+	}
+
+	/**
+	 * Consumer only. Counts slots already claimed by producers that may still be writing them.
+	 */
+	int size()
+	{
+		return (int) Math.max(0, tail.get() - head);
+	}
+
+	/**
+	 * Consumer only.
+	 */
+	boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	int capacity()
+	{
+		return elements.length;
+	}
+}
\ No newline at end of file
@@ -1,10 +1,13 @@
 package com.pokeemu.unix.ui;
 
+import com.pokeemu.unix.LauncherUtils;
 import com.pokeemu.unix.UnixInstaller;
 import com.pokeemu.unix.config.Config;
 import com.pokeemu.unix.enums.PokeMMOLocale;
+import com.pokeemu.unix.enums.RepairMode;
 import com.pokeemu.unix.enums.UpdateChannel;
 import com.pokeemu.unix.updater.FeedManager;
+import com.pokeemu.unix.util.GameJvmTuner;
 import com.pokeemu.unix.util.Util;
 
 import imgui.ImGui;
@@ -19,10 +22,14 @@ public class ConfigWindow extends AbstractModalWindow
 	private final imgui.type.ImInt networkThreads = new imgui.type.ImInt();
 	private final imgui.type.ImInt selectedChannelIndex = new imgui.type.ImInt();
 	private final imgui.type.ImInt maxMemory = new imgui.type.ImInt();
+	private final imgui.type.ImInt selectedRepairModeIndex = new imgui.type.ImInt();
 	private boolean aesWorkaround;
+	private boolean adaptiveJvmTuning;
+	private boolean jvmGcHistory;
 
 	private static final float LABEL_WIDTH = 200.0f;
 	private static final float INPUT_WIDTH = 200.0f;
+	private static final float REPAIR_MODE_WIDTH = 80.0f;
 
 	private static final int MEMORY_STEP = 128;
 	private static final int MEMORY_MIN = 384;
@@ -31,6 +38,7 @@ public class ConfigWindow extends AbstractModalWindow
 
 	private final String[] localeNames;
 	private final String[] channelNames;
+	private final String[] repairModeNames = new String[RepairMode.values().length];
 
 	public ConfigWindow(UnixInstaller parent)
 	{
@@ -167,6 +175,48 @@ public class ConfigWindow extends AbstractModalWindow
 			ImGui.indent();
 			ImGui.pushItemWidth(INPUT_WIDTH);
 
+			renderLabeledControl(Config.getString("config.title.adaptive_jvm"), LABEL_WIDTH, () -> {
+				ImBoolean adaptiveValue = new ImBoolean(adaptiveJvmTuning);
+				if(ImGui.checkbox("##AdaptiveJvm", adaptiveValue))
+				{
+					adaptiveJvmTuning = adaptiveValue.get();
+					Config.ADAPTIVE_JVM_TUNING_ENABLED = adaptiveJvmTuning;
+					Config.save();
+				}
+
+				ImGui.sameLine();
+				renderHelpMarker("config.adaptive_jvm.tooltip");
+			});
+
+			if(adaptiveJvmTuning)
+			{
+				renderLabeledControl(Config.getString("config.title.jvm_gc_history"), LABEL_WIDTH, () -> {
+					ImBoolean historyValue = new ImBoolean(jvmGcHistory);
+					if(ImGui.checkbox("##JvmGcHistory", historyValue))
+					{
+						jvmGcHistory = historyValue.get();
+						Config.JVM_GC_HISTORY_ENABLED = jvmGcHistory;
+						Config.save();
+						GameJvmTuner.invalidateRecommendation();
+					}
+				});
+
+				GameJvmTuner.Recommendation recommendation = GameJvmTuner.pollRecommendation(
+						LauncherUtils.getPokemmoDir(), threadBridge::requestRender);
+				if(recommendation == null)
+				{
+					ImGui.textDisabled(Config.getString("config.adaptive_jvm.recommendation_pending"));
+				}
+				else
+				{
+					ImGui.textDisabled(Config.getString("config.adaptive_jvm.recommendation",
+							recommendation.maxHeapMb(), recommendation.collector().getDisplayName()));
+				}
+
+				// The manual value below is the override, it only applies once automatic tuning is turned off
+				ImGui.beginDisabled();
+			}
+
 			renderLabeledControl(Config.getString("config.mem.max"), LABEL_WIDTH, () -> {
 				if(ImGui.inputInt("##MaxMemory", maxMemory, MEMORY_STEP, MEMORY_STEP * 2))
 				{
@@ -182,6 +232,11 @@ public class ConfigWindow extends AbstractModalWindow
 				ImGui.text("MB");
 			});
 
+			if(adaptiveJvmTuning)
+			{
+				ImGui.endDisabled();
+			}
+
 			renderLabeledControl(Config.getString("config.title.networking_corruption_workaround"), LABEL_WIDTH, () -> {
 				ImGui.beginDisabled();
 
@@ -251,18 +306,24 @@ public class ConfigWindow extends AbstractModalWindow
 		{
 			close();
 
+			RepairMode repairMode = RepairMode.values()[selectedRepairModeIndex.get()];
 			threadBridge.asyncExec(() -> threadBridge.showYesNoDialog(
 					Config.getString("status.game_repair_prompt"),
 					Config.getString("dialog.title.confirm_repair"),
 					() -> {
 						parent.getMainWindow().clearTaskOutput();
 						parent.getMainWindow().addTaskLine(Config.getString("status.starting_repair"));
-						parent.getUpdaterService().startUpdate(true, false);
+						parent.getUpdaterService().startUpdate(repairMode, false);
 					},
 					null
 			));
 		}
 
+		ImGui.sameLine();
+		ImGui.pushItemWidth(REPAIR_MODE_WIDTH);
+		ImGui.combo("##RepairMode", selectedRepairModeIndex, repairModeNames);
+		ImGui.popItemWidth();
+
 		if(isUpdating)
 		{
 			ImGui.endDisabled();
@@ -308,6 +369,14 @@ public class ConfigWindow extends AbstractModalWindow
 		maxMemory.set(memValue);
 
 		aesWorkaround = Config.AES_INTRINSICS_WORKAROUND_ENABLED;
+		adaptiveJvmTuning = Config.ADAPTIVE_JVM_TUNING_ENABLED;
+		jvmGcHistory = Config.JVM_GC_HISTORY_ENABLED;
+
+		RepairMode[] repairModes = RepairMode.values();
+		for(int i = 0; i < repairModes.length; i++)
+		{
+			repairModeNames[i] = Config.getString(repairModes[i].getMessageKey());
+		}
 	}
 
 	private int getLocaleIndex(PokeMMOLocale locale)
@@ -10,5 +10,9 @@ public interface IProgressReporter
 
 	void showError(String message, String title, Runnable onClose);
 
-	void setDownloadSpeed(String speed);
+	/**
+	 * @param secondsLeft estimated time to finish the download, -1 if unknown
+	 * @param mirrorBytesPerSecond speed per mirror index, only valid during the call
+	 */
+	void setDownloadSpeed(long bytesPerSecond, long secondsLeft, long[] mirrorBytesPerSecond);
 }
\ No newline at end of file
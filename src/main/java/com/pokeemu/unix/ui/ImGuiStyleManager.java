@@ -59,9 +59,16 @@ public class ImGuiStyleManager
 		target[3] = a;
 	}
 
+	/**
+	 * Applies the last known desktop theme, later detections are applied through {@link #applyTheme}
+	 */
 	public static void applySystemTheme()
 	{
-		boolean darkMode = GnomeThemeDetector.isDark();
+		applyTheme(GnomeThemeDetector.isDark());
+	}
+
+	public static void applyTheme(boolean darkMode)
+	{
 		if(darkMode)
 		{
 			applySpectrumDark();
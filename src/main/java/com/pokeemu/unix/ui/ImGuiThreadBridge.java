@@ -1,37 +1,79 @@
 package com.pokeemu.unix.ui;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import com.pokeemu.unix.config.Config;
 
 public class ImGuiThreadBridge implements IProgressReporter
 {
 	private final ConcurrentLinkedQueue<Runnable> uiUpdates = new ConcurrentLinkedQueue<>();
-	private final ConcurrentLinkedQueue<TaskMessage> taskOutput = new ConcurrentLinkedQueue<>();
-	private final AtomicReference<String> statusMessage = new AtomicReference<>("");
-	private final AtomicInteger progress = new AtomicInteger(0);
-	private final AtomicReference<String> downloadSpeed = new AtomicReference<>("");
+	// Status and progress are coalesced, the UI only ever needs the latest value
+	private final AtomicReference<ProgressState> progressState = new AtomicReference<>(new ProgressState("", 0));
+	// Published as numbers, the render thread formats them only when they change
+	private volatile long downloadBytesPerSecond = 0;
+	private volatile long downloadSecondsLeft = -1;
+	private volatile AtomicLongArray mirrorBytesPerSecond = new AtomicLongArray(0);
+	// Bumped after each speed update, only the speed calculator thread writes it
+	private volatile long downloadSpeedUpdates = 0;
+
+	// Lines that do not fit are counted and summarised instead of queueing without bound
+	private final BoundedRing<TaskMessage> taskOutput = new BoundedRing<>(TASK_OUTPUT_CAPACITY);
+	private final AtomicLong droppedTaskLines = new AtomicLong();
+	private volatile boolean taskOutputClearRequested = false;
+	private int peakTaskBacklog = 0;
+	private long droppedSincePeak = 0;
+	// Render thread only, replaced only when the backlog changes
+	private FrameMetrics frameMetrics = new FrameMetrics(0, 0, 0);
 
 	private final ConcurrentLinkedQueue<DialogRequest> dialogRequests = new ConcurrentLinkedQueue<>();
 
+	private final RenderScheduler renderScheduler;
+
 	private static final int MAX_UI_UPDATES_PER_FRAME = 20;
-	private static final int MAX_TASK_LINES_PER_FRAME = 50;
+	private static final int TASK_OUTPUT_CAPACITY = 4096;
 	private static final int MAX_DIALOGS_PER_FRAME = 3;
 
 	public record TaskMessage(String text, LogLevel level) {};
 
+	/**
+	 * Task log backlog seen by the most recent frame
+	 *
+	 * @param taskBacklog lines waiting when the frame started draining
+	 * @param peakTaskBacklog deepest backlog of the latest burst of lines
+	 * @param droppedTaskLines lines of the latest burst summarised because the ring was full
+	 */
+	public record FrameMetrics(int taskBacklog, int peakTaskBacklog, long droppedTaskLines) {}
+
+	private record ProgressState(String status, int progress) {}
+
+	private static final TaskMessage CLEAR_TASK_OUTPUT = new TaskMessage(null, null);
+
+	public ImGuiThreadBridge(RenderScheduler renderScheduler)
+	{
+		this.renderScheduler = renderScheduler;
+	}
+
 	public void asyncExec(Runnable runnable)
 	{
 		if(runnable != null)
 		{
 			uiUpdates.offer(runnable);
+			renderScheduler.markDirty();
 		}
 	}
 
+	/**
+	 * Requests a new frame after state read by the UI was changed outside the bridge
+	 */
+	public void requestRender()
+	{
+		renderScheduler.markDirty();
+	}
+
 	public void processUpdates()
 	{
 		Runnable update;
@@ -66,19 +108,41 @@ public class ImGuiThreadBridge implements IProgressReporter
 			}
 			dialogsProcessed++;
 		}
+
+		// Anything left over from the per-frame caps needs another frame
+		if(!uiUpdates.isEmpty() || !dialogRequests.isEmpty() || !taskOutput.isEmpty())
+		{
+			renderScheduler.markDirty();
+		}
 	}
 
 	@Override
 	public void setStatus(String message, int progressValue)
 	{
-		if(message != null)
+		updateProgressState(message, progressValue);
+	}
+
+	private void updateProgressState(String message, int progressValue)
+	{
+		boolean validProgress = progressValue >= 0 && progressValue <= 100;
+		if(message == null && !validProgress)
 		{
-			statusMessage.set(message);
+			return;
 		}
-		if(progressValue >= 0 && progressValue <= 100)
+
+		progressState.updateAndGet(current -> new ProgressState(
+				message != null ? message : current.status(),
+				validProgress ? progressValue : current.progress()));
+		renderScheduler.markDirty();
+	}
+
+	private void offerTaskLine(TaskMessage message)
+	{
+		if(!taskOutput.offer(message))
 		{
-			progress.set(progressValue);
+			droppedTaskLines.incrementAndGet();
 		}
+		renderScheduler.markDirty();
 	}
 
 	@Override
@@ -90,13 +154,10 @@ public class ImGuiThreadBridge implements IProgressReporter
 			if(!formatted.isEmpty())
 			{
 				LogLevel level = determineLogLevelFromKey(messageKey);
-				taskOutput.offer(new TaskMessage(formatted, level));
+				offerTaskLine(new TaskMessage(formatted, level));
 			}
 
-			if(progressValue >= 0 && progressValue <= 100)
-			{
-				progress.set(progressValue);
-			}
+			updateProgressState(null, progressValue);
 		}
 		catch(Exception e)
 		{
@@ -106,11 +167,26 @@ public class ImGuiThreadBridge implements IProgressReporter
 	}
 
 	@Override
-	public void setDownloadSpeed(String speed)
+	public void setDownloadSpeed(long bytesPerSecond, long secondsLeft, long[] mirrorBytesPerSecond)
 	{
-		if(speed != null)
+		AtomicLongArray mirrors = this.mirrorBytesPerSecond;
+		if(mirrors.length() != mirrorBytesPerSecond.length)
+		{
+			mirrors = new AtomicLongArray(mirrorBytesPerSecond.length);
+			this.mirrorBytesPerSecond = mirrors;
+		}
+
+		for(int i = 0; i < mirrorBytesPerSecond.length; i++)
+		{
+			mirrors.set(i, mirrorBytesPerSecond[i]);
+		}
+		downloadSpeedUpdates++;
+
+		if(bytesPerSecond != downloadBytesPerSecond || secondsLeft != downloadSecondsLeft)
 		{
-			downloadSpeed.set(speed);
+			downloadBytesPerSecond = bytesPerSecond;
+			downloadSecondsLeft = secondsLeft;
+			renderScheduler.markDirty();
 		}
 	}
 
@@ -126,7 +202,7 @@ public class ImGuiThreadBridge implements IProgressReporter
 		if(message != null)
 		{
 			dialogRequests.offer(new DialogRequest(DialogType.ERROR, message, title, onClose));
-			taskOutput.offer(new TaskMessage("ERROR: " + message, LogLevel.ERROR));
+			offerTaskLine(new TaskMessage("ERROR: " + message, LogLevel.ERROR));
 		}
 	}
 
@@ -140,13 +216,10 @@ public class ImGuiThreadBridge implements IProgressReporter
 			String formatted = Config.getString(messageKey, params);
 			if(!formatted.isEmpty())
 			{
-				taskOutput.offer(new TaskMessage(formatted, level));
+				offerTaskLine(new TaskMessage(formatted, level));
 			}
 
-			if(progressValue >= 0 && progressValue <= 100)
-			{
-				progress.set(progressValue);
-			}
+			updateProgressState(null, progressValue);
 		}
 		catch(Exception e)
 		{
@@ -162,7 +235,7 @@ public class ImGuiThreadBridge implements IProgressReporter
 	{
 		if(text != null && !text.trim().isEmpty())
 		{
-			taskOutput.offer(new TaskMessage(text, level));
+			offerTaskLine(new TaskMessage(text, level));
 		}
 	}
 
@@ -228,6 +301,7 @@ public class ImGuiThreadBridge implements IProgressReporter
 		if(message != null)
 		{
 			dialogRequests.offer(new DialogRequest(DialogType.INFO, message, title, onClose));
+			renderScheduler.markDirty();
 		}
 	}
 
@@ -236,43 +310,147 @@ public class ImGuiThreadBridge implements IProgressReporter
 		if(message != null)
 		{
 			dialogRequests.offer(new DialogRequest(DialogType.YES_NO, message, title, onYes, onNo));
+			renderScheduler.markDirty();
 		}
 	}
 
 	public String getStatusMessage()
 	{
-		return statusMessage.get();
+		return progressState.get().status();
 	}
 
 	public int getProgress()
 	{
-		return Math.max(0, Math.min(100, progress.get()));
+		return progressState.get().progress();
 	}
 
-	public String getDownloadSpeed()
+	/**
+	 * Render thread only
+	 */
+	public FrameMetrics getFrameMetrics()
 	{
-		return downloadSpeed.get();
+		return frameMetrics;
 	}
 
-	public List<TaskMessage> getAndClearTaskOutput()
+	public long getDownloadBytesPerSecond()
 	{
-		List<TaskMessage> messages = new ArrayList<>();
-		TaskMessage msg;
-		int count = 0;
+		return downloadBytesPerSecond;
+	}
+
+	/**
+	 * @return the estimated time to finish the download, -1 if unknown
+	 */
+	public long getDownloadSecondsLeft()
+	{
+		return downloadSecondsLeft;
+	}
+
+	public AtomicLongArray getMirrorBytesPerSecond()
+	{
+		return mirrorBytesPerSecond;
+	}
 
-		while((msg = taskOutput.poll()) != null && count < MAX_TASK_LINES_PER_FRAME)
+	/**
+	 * @return changes whenever the speeds were updated, so their text only needs formatting again then
+	 */
+	public long getDownloadSpeedUpdates()
+	{
+		return downloadSpeedUpdates;
+	}
+
+	/**
+	 * Hands every queued task line to the render thread in order, followed by a summary of any lines
+	 * that were dropped because the ring was full. Render thread only.
+	 */
+	public void drainTaskOutput(Consumer<TaskMessage> lines, Runnable clear)
+	{
+		if(taskOutputClearRequested)
 		{
-			messages.add(msg);
-			count++;
+			taskOutputClearRequested = false;
+			discardTaskOutput();
+			clear.run();
 		}
 
-		return messages;
+		int backlog = taskOutput.size();
+
+		// Bounded so producers that keep up with the consumer can not hold the frame forever
+		for(int count = 0; count < taskOutput.capacity(); count++)
+		{
+			TaskMessage msg = taskOutput.poll();
+			if(msg == null)
+			{
+				break;
+			}
+
+			if(msg == CLEAR_TASK_OUTPUT)
+			{
+				clear.run();
+			}
+			else
+			{
+				lines.accept(msg);
+			}
+		}
+
+		long dropped = droppedTaskLines.getAndSet(0);
+		if(dropped > 0)
+		{
+			lines.accept(new TaskMessage(Config.getString("status.files.more", dropped), LogLevel.INFO));
+		}
+
+		recordBacklog(backlog, dropped);
+	}
+
+	/**
+	 * Publishes the backlog for {@link #getFrameMetrics()}. Once a burst that overflowed the ring has drained, its
+	 * deepest backlog is also logged and stays in the metrics until the next burst.
+	 */
+	private void recordBacklog(int backlog, long dropped)
+	{
+		if(backlog > 0 || dropped > 0)
+		{
+			peakTaskBacklog = Math.max(peakTaskBacklog, backlog);
+			droppedSincePeak += dropped;
+			frameMetrics = new FrameMetrics(backlog, peakTaskBacklog, droppedSincePeak);
+		}
+		else if(peakTaskBacklog > 0 || droppedSincePeak > 0)
+		{
+			if(droppedSincePeak > 0)
+			{
+				System.out.println("Task log backlog peaked at " + peakTaskBacklog + " lines per frame, "
+						+ droppedSincePeak + " lines were summarised");
+			}
+			frameMetrics = new FrameMetrics(0, peakTaskBacklog, droppedSincePeak);
+			peakTaskBacklog = 0;
+			droppedSincePeak = 0;
+		}
+	}
+
+	private void discardTaskOutput()
+	{
+		while(taskOutput.poll() != null)
+		{
+			// drop everything queued before the clear
+		}
+		droppedTaskLines.set(0);
+	}
+
+	/**
+	 * Queued in order with the task lines, so lines logged after the clear are kept
+	 */
+	public void clearTaskOutput()
+	{
+		if(!taskOutput.offer(CLEAR_TASK_OUTPUT))
+		{
+			taskOutputClearRequested = true;
+		}
+		renderScheduler.markDirty();
 	}
 
 	public void clearPendingUpdates()
 	{
 		uiUpdates.clear();
-		taskOutput.clear();
+		taskOutputClearRequested = true;
 		dialogRequests.clear();
 	}
 
@@ -1,10 +1,8 @@
 package com.pokeemu.unix.ui;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.IllegalFormatException;
 import java.util.List;
@@ -13,7 +11,6 @@ import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 
-import com.ibm.icu.text.UnicodeSet;
 import com.pokeemu.unix.config.Config;
 import com.pokeemu.unix.enums.PokeMMOLocale;
 
@@ -22,6 +19,8 @@ import imgui.ImFontAtlas;
 import imgui.ImFontConfig;
 import imgui.ImGui;
 import imgui.ImGuiIO;
+import imgui.gl3.ImGuiImplGl3;
+import imgui.type.ImInt;
 
 public class LocalizationManager
 {
@@ -34,15 +33,23 @@ public class LocalizationManager
 	private static final float DEFAULT_FONT_SIZE = 16.0f;
 	private static final String MAIN_FONT_RESOURCE = "/fonts/NotoSansCJK-Medium.ttc";
 
-	private short[] cachedGlyphRanges = null;
+	// Characters rasterised into the current atlas, null until the fonts are first built
+	private BitSet loadedGlyphs = null;
+	private volatile boolean fontRebuildPending = false;
 
 	private LocalizationManager()
 	{
 		updateLocale();
 	}
 
+	/**
+	 * Builds an atlas holding only the active locale plus the language picker's display names, and whatever
+	 * an earlier atlas held. Other scripts are added by {@link #rebuildFontsIfNeeded} once the locale changes.
+	 */
 	public void initializeFonts()
 	{
+		long start = System.nanoTime();
+
 		ImGuiIO io = ImGui.getIO();
 		ImFontAtlas fontAtlas = io.getFonts();
 
@@ -55,7 +62,14 @@ public class LocalizationManager
 		fontConfig.setOversampleV(1);
 		fontConfig.setPixelSnapH(true);
 
-		short[] glyphRanges = getOptimizedGlyphRanges();
+		PokeMMOLocale locale = currentLocale;
+		BitSet glyphs = getRequiredGlyphs(locale);
+		if(loadedGlyphs != null)
+		{
+			// Lines already in the task log may still be in the previous language
+			glyphs.or(loadedGlyphs);
+		}
+		short[] glyphRanges = convertToRanges(glyphs);
 
 		ImFont mainFont = loadFontFromResource(fontAtlas, fontConfig, glyphRanges);
 
@@ -67,83 +81,101 @@ public class LocalizationManager
 
 		fontAtlas.build();
 		io.setFontDefault(mainFont);
+
+		loadedGlyphs = glyphs;
+
+		ImInt width = new ImInt();
+		ImInt height = new ImInt();
+		fontAtlas.getTexDataAsRGBA32(width, height);
+		System.out.println("Built " + locale.getLangTag() + " font atlas with " + glyphs.cardinality() + " characters, "
+				+ width.get() + "x" + height.get() + " in " + (System.nanoTime() - start) / 1_000_000 + "ms");
 	}
 
-	private short[] getOptimizedGlyphRanges()
+	/**
+	 * Rebuilds the atlas when the active locale needs characters it does not hold yet.
+	 * Must run on the render thread between frames, never while a frame is being built.
+	 *
+	 * @param renderer owns the atlas texture, it is replaced through the renderer so its state stays consistent
+	 */
+	public void rebuildFontsIfNeeded(ImGuiImplGl3 renderer)
 	{
-		if(cachedGlyphRanges != null)
+		if(!fontRebuildPending)
 		{
-			return cachedGlyphRanges;
+			return;
 		}
 
-		UnicodeSet allChars = new UnicodeSet();
+		fontRebuildPending = false;
+
+		// Before the first frame the renderer has not created its texture yet and uploads the atlas itself
+		boolean uploaded = ImGui.getIO().getFonts().getTexID() != 0;
+		if(uploaded)
+		{
+			renderer.destroyFontsTexture();
+		}
 
-		allChars.add(0x0020, 0x007E);
-		allChars.add(0x00A0, 0x00FF);
-		allChars.add(0x2000, 0x206F);
-		allChars.add(0x20A0, 0x20CF);
+		initializeFonts();
 
-		for(PokeMMOLocale locale : PokeMMOLocale.ENABLED_LANGUAGES)
+		if(uploaded)
 		{
-			try
-			{
-				ResourceBundle bundle = locale.getStrings();
-				if(bundle == null) continue;
-
-				Enumeration<String> keys = bundle.getKeys();
-				while(keys.hasMoreElements())
-				{
-					String key = keys.nextElement();
-					try
-					{
-						String value = bundle.getString(key);
-						for(int i = 0; i < value.length(); i++)
-						{
-							allChars.add(value.charAt(i));
-						}
-					}
-					catch(MissingResourceException ignored)
-					{
-					}
-				}
-
-				String displayName = locale.getDisplayName();
-				if(displayName != null)
-				{
-					for(int i = 0; i < displayName.length(); i++)
-					{
-						allChars.add(displayName.charAt(i));
-					}
-				}
+			renderer.createFontsTexture();
+		}
+	}
 
-			}
-			catch(Exception e)
+	private BitSet getRequiredGlyphs(PokeMMOLocale locale)
+	{
+		BitSet glyphs = new BitSet(0x10000);
+
+		char[] bundleRanges = getBundleGlyphRanges(locale);
+		for(int i = 0; i + 1 < bundleRanges.length; i += 2)
+		{
+			glyphs.set(bundleRanges[i], bundleRanges[i + 1] + 1);
+		}
+
+		// Display names live in code rather than the bundles, the language picker shows all of them
+		for(PokeMMOLocale language : PokeMMOLocale.ENABLED_LANGUAGES)
+		{
+			String displayName = language.getDisplayName();
+			for(int i = 0; i < displayName.length(); i++)
 			{
-				System.err.println("Error scanning locale " + locale + ": " + e.getMessage());
+				glyphs.set(displayName.charAt(i));
 			}
 		}
 
-		cachedGlyphRanges = convertUnicodeSetToRanges(allChars);
-		System.out.println("Generated font ranges covering " + allChars.size() + " unique characters");
+		return glyphs;
+	}
+
+	/**
+	 * Looks up the ranges precomputed at build time, following the same fallback as ResourceBundle.
+	 */
+	private char[] getBundleGlyphRanges(PokeMMOLocale locale)
+	{
+		Locale javaLocale = Locale.forLanguageTag(locale.getLangTag());
 
-		return cachedGlyphRanges;
+		char[] ranges = GlyphRangeTable.get(javaLocale.toString());
+		if(ranges == null)
+		{
+			ranges = GlyphRangeTable.get(javaLocale.getLanguage());
+		}
+		if(ranges == null)
+		{
+			ranges = GlyphRangeTable.get("");
+		}
+
+		return ranges;
 	}
 
-	private short[] convertUnicodeSetToRanges(UnicodeSet unicodeSet)
+	private short[] convertToRanges(BitSet glyphs)
 	{
 		List<Short> ranges = new ArrayList<>();
 
-		int rangeCount = unicodeSet.getRangeCount();
-		for(int i = 0; i < rangeCount; i++)
+		for(int start = glyphs.nextSetBit(0); start >= 0 && start <= 0xFFFF; start = glyphs.nextSetBit(start))
 		{
-			int start = unicodeSet.getRangeStart(i);
-			int end = unicodeSet.getRangeEnd(i);
-
-			if(start > 0xFFFF) break;
-			if(end > 0xFFFF) end = 0xFFFF;
+			int end = Math.min(glyphs.nextClearBit(start), 0x10000);
 
 			ranges.add((short) start);
-			ranges.add((short) end);
+			ranges.add((short) (end - 1));
+
+			start = end;
 		}
 
 		ranges.add((short) 0);
@@ -159,29 +191,15 @@ public class LocalizationManager
 
 	private ImFont loadFontFromResource(ImFontAtlas fontAtlas, ImFontConfig config, short[] glyphRanges)
 	{
-		InputStream is = null;
-		ByteArrayOutputStream buffer = null;
-
-		try
+		try(InputStream is = getClass().getResourceAsStream(MAIN_FONT_RESOURCE))
 		{
-			is = getClass().getResourceAsStream(MAIN_FONT_RESOURCE);
 			if(is == null)
 			{
 				System.err.println("Font resource not found: " + MAIN_FONT_RESOURCE);
 				return null;
 			}
 
-			buffer = new ByteArrayOutputStream();
-			byte[] data = new byte[16384];
-			int nRead;
-
-			while((nRead = is.read(data, 0, data.length)) != -1)
-			{
-				buffer.write(data, 0, nRead);
-			}
-
-			buffer.flush();
-			byte[] fontData = buffer.toByteArray();
+			byte[] fontData = is.readAllBytes();
 
 			if(fontData.length == 0)
 			{
@@ -198,35 +216,22 @@ public class LocalizationManager
 			e.printStackTrace();
 			return null;
 		}
-		finally
-		{
-			if(buffer != null)
-			{
-				try
-				{
-					buffer.close();
-				}
-				catch(IOException ignored)
-				{
-				}
-			}
-			if(is != null)
-			{
-				try
-				{
-					is.close();
-				}
-				catch(IOException ignored)
-				{
-				}
-			}
-		}
 	}
 
 	public void updateLocale()
 	{
 		currentLocale = Config.ACTIVE_LOCALE;
 		stringCache.clear();
+
+		if(loadedGlyphs != null)
+		{
+			BitSet missing = getRequiredGlyphs(currentLocale);
+			missing.andNot(loadedGlyphs);
+			if(!missing.isEmpty())
+			{
+				fontRebuildPending = true;
+			}
+		}
 	}
 
 	public String getString(String key)
@@ -1,16 +1,19 @@
 package com.pokeemu.unix.ui;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.net.URI;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
 
 import com.pokeemu.unix.UnixInstaller;
 import com.pokeemu.unix.config.Config;
+import com.pokeemu.unix.updater.FeedManager;
 
 import imgui.ImGui;
+import imgui.ImGuiListClipper;
 import imgui.ImVec2;
+import imgui.callback.ImListClipperCallback;
 import imgui.flag.ImGuiWindowFlags;
 
 public class MainWindow
@@ -18,33 +21,51 @@ public class MainWindow
 	private final UnixInstaller parent;
 	private final ImGuiThreadBridge threadBridge;
 
-	private final List<TaskLine> taskLines = new ArrayList<>();
-	private final ReadWriteLock taskLinesLock = new ReentrantReadWriteLock();
+	private static final int MAX_TASK_LINES = 100_000;
+	private static final float BUTTON_HEIGHT = 25.0f;
+	private static final float STATUS_PANEL_HEIGHT = 60.0f;
+	private static final float BOTTOM_PANEL_HEIGHT = 40.0f;
+
+	// Ring buffer of log lines, only ever touched by the render thread
+	private final ImGuiThreadBridge.TaskMessage[] taskLines = new ImGuiThreadBridge.TaskMessage[MAX_TASK_LINES];
+	private int taskLinesStart = 0;
+	private int taskLinesCount = 0;
+	private boolean needsScrollToBottom = false;
+
 	private final AtomicBoolean canStart = new AtomicBoolean(false);
 
-	private final AtomicBoolean needsScrollToBottom = new AtomicBoolean(false);
+	private static final String[] MIRROR_HOSTS = Arrays.stream(FeedManager.DOWNLOAD_MIRRORS)
+			.map(mirror -> URI.create(mirror).getHost())
+			.toArray(String[]::new);
+
+	// Rebuilt only when the published speeds change, a frame with the same numbers formats nothing
+	private final StringBuilder speedText = new StringBuilder();
+	private final StringBuilder speedPart = new StringBuilder();
+	private final StringBuilder timeLeftPart = new StringBuilder();
+	private String speedLabel = "";
+	private long shownBytesPerSecond = -1;
+	private long shownSecondsLeft = -1;
+	private final StringBuilder mirrorSpeedsText = new StringBuilder();
+	private String mirrorSpeedsLabel = "";
+	private long shownSpeedUpdates = -1;
+
+	private ImGuiThreadBridge.FrameMetrics shownMetrics;
+	private String backlogLabel = "";
 
 	private final int windowWidth;
 	private final int windowHeight;
 
-	private static final int MAX_TASK_LINES = 1000;
-	private static final float BUTTON_HEIGHT = 25.0f;
-	private static final float STATUS_PANEL_HEIGHT = 60.0f;
-	private static final float BOTTOM_PANEL_HEIGHT = 40.0f;
+	private final Consumer<ImGuiThreadBridge.TaskMessage> taskLineAppender = this::appendTaskLine;
+	private final Runnable taskLineClearer = this::clearTaskLines;
 
-	private static class TaskLine
+	private final ImListClipperCallback taskLineRenderer = new ImListClipperCallback()
 	{
-		final String text;
-		final LogLevel level;
-		final long timestamp;
-
-		TaskLine(String text, LogLevel level)
+		@Override
+		public void accept(int index)
 		{
-			this.text = text;
-			this.level = level != null ? level : LogLevel.INFO;
-			this.timestamp = System.currentTimeMillis();
+			renderTaskLine(taskLines[(taskLinesStart + index) % MAX_TASK_LINES]);
 		}
-	}
+	};
 
 	public MainWindow(UnixInstaller parent, ImGuiThreadBridge threadBridge, int width, int height)
 	{
@@ -109,8 +130,8 @@ public class MainWindow
 		String progressText = progress > 0 ? String.format("%.0f%%", progress * 100) : "";
 		ImGui.progressBar(progress, progressBarWidth, 0, progressText);
 
-		String dlSpeed = threadBridge.getDownloadSpeed();
-		if(dlSpeed != null && !dlSpeed.isEmpty() && !dlSpeed.equals("0 B/s"))
+		long bytesPerSecond = threadBridge.getDownloadBytesPerSecond();
+		if(bytesPerSecond > 0)
 		{
 			ImGui.sameLine();
 			ImGui.pushStyleColor(imgui.flag.ImGuiCol.Text,
@@ -118,13 +139,85 @@ public class MainWindow
 					ImGuiStyleManager.COLOR_INFO[1],
 					ImGuiStyleManager.COLOR_INFO[2],
 					ImGuiStyleManager.COLOR_INFO[3]);
-			ImGui.text("[" + dlSpeed + "]");
+			ImGui.text(getSpeedLabel(bytesPerSecond, threadBridge.getDownloadSecondsLeft()));
 			ImGui.popStyleColor();
+
+			if(ImGui.isItemHovered())
+			{
+				renderMirrorSpeeds();
+			}
 		}
 
 		ImGui.endChild();
 	}
 
+	private String getSpeedLabel(long bytesPerSecond, long secondsLeft)
+	{
+		if(bytesPerSecond == shownBytesPerSecond && secondsLeft == shownSecondsLeft)
+		{
+			return speedLabel;
+		}
+
+		speedPart.setLength(0);
+		TransferText.appendSpeed(speedPart, bytesPerSecond);
+
+		speedText.setLength(0);
+		speedText.append('[');
+		if(secondsLeft >= 0)
+		{
+			timeLeftPart.setLength(0);
+			TransferText.appendDuration(timeLeftPart, secondsLeft);
+			TransferText.appendPattern(speedText, Config.getString("status.download_eta"), speedPart, timeLeftPart);
+		}
+		else
+		{
+			speedText.append(speedPart);
+		}
+		speedText.append(']');
+
+		shownBytesPerSecond = bytesPerSecond;
+		shownSecondsLeft = secondsLeft;
+		speedLabel = speedText.toString();
+		return speedLabel;
+	}
+
+	private void renderMirrorSpeeds()
+	{
+		ImGui.beginTooltip();
+		ImGui.text(getMirrorSpeedsLabel());
+		ImGui.endTooltip();
+	}
+
+	private String getMirrorSpeedsLabel()
+	{
+		long speedUpdates = threadBridge.getDownloadSpeedUpdates();
+		if(speedUpdates == shownSpeedUpdates)
+		{
+			return mirrorSpeedsLabel;
+		}
+
+		AtomicLongArray mirrorSpeeds = threadBridge.getMirrorBytesPerSecond();
+
+		mirrorSpeedsText.setLength(0);
+		for(int i = 0; i < mirrorSpeeds.length() && i < MIRROR_HOSTS.length; i++)
+		{
+			long mirrorBytesPerSecond = mirrorSpeeds.get(i);
+			if(mirrorBytesPerSecond > 0)
+			{
+				if(!mirrorSpeedsText.isEmpty())
+				{
+					mirrorSpeedsText.append('\n');
+				}
+				mirrorSpeedsText.append(MIRROR_HOSTS[i]).append(": ");
+				TransferText.appendSpeed(mirrorSpeedsText, mirrorBytesPerSecond);
+			}
+		}
+
+		shownSpeedUpdates = speedUpdates;
+		mirrorSpeedsLabel = mirrorSpeedsText.toString();
+		return mirrorSpeedsLabel;
+	}
+
 	private void renderTaskOutput()
 	{
 		float availableHeight = ImGui.getContentRegionAvailY() - BOTTOM_PANEL_HEIGHT - ImGui.getStyle().getItemSpacingY() * 2;
@@ -132,80 +225,87 @@ public class MainWindow
 		if(ImGui.beginChild("##TaskOutput", 0, availableHeight, true,
 				ImGuiWindowFlags.HorizontalScrollbar | ImGuiWindowFlags.AlwaysVerticalScrollbar))
 		{
-			TaskSnapshot snapshot = processAndGetSnapshot();
+			threadBridge.drainTaskOutput(taskLineAppender, taskLineClearer);
 
-			renderTaskLines(snapshot.lines);
+			// Only the visible lines are submitted, so a frame costs the same however long the log is
+			ImGui.pushStyleVar(imgui.flag.ImGuiStyleVar.ItemSpacing, 0, 2);
+			ImGuiListClipper.forEach(taskLinesCount, taskLineRenderer);
+			ImGui.popStyleVar();
 
-			if(snapshot.shouldScroll)
+			if(needsScrollToBottom)
 			{
 				ImGui.setScrollHereY(1.0f);
+				needsScrollToBottom = false;
 			}
 		}
 		ImGui.endChild();
+
+		// Shows how far the log fell behind once a burst of lines overflowed it
+		ImGuiThreadBridge.FrameMetrics metrics = threadBridge.getFrameMetrics();
+		if(metrics.droppedTaskLines() > 0 && ImGui.isItemHovered())
+		{
+			ImGui.beginTooltip();
+			ImGui.text(getBacklogLabel(metrics));
+			ImGui.endTooltip();
+		}
 	}
 
-	/**
-	 * Container for snapshot data with associated scroll state
-	 */
-	private static class TaskSnapshot
+	private String getBacklogLabel(ImGuiThreadBridge.FrameMetrics metrics)
 	{
-		final List<TaskLine> lines;
-		final boolean shouldScroll;
-
-		TaskSnapshot(List<TaskLine> lines, boolean shouldScroll)
+		if(metrics != shownMetrics)
 		{
-			this.lines = lines;
-			this.shouldScroll = shouldScroll;
+			backlogLabel = Config.getString("main.task_backlog", metrics.taskBacklog(), metrics.peakTaskBacklog(),
+					metrics.droppedTaskLines());
+			shownMetrics = metrics;
 		}
+		return backlogLabel;
 	}
 
-	/**
-	 * Process new task lines and return a snapshot for rendering.
-	 * This method handles all list operations atomically under lock.
-	 */
-	private TaskSnapshot processAndGetSnapshot()
+	private void appendTaskLine(ImGuiThreadBridge.TaskMessage message)
 	{
-		List<ImGuiThreadBridge.TaskMessage> newMessages = threadBridge.getAndClearTaskOutput();
+		String text = message.text();
 
-		taskLinesLock.writeLock().lock();
-		try
+		// The clipper needs every entry to be a single line of the same height
+		if(text.indexOf('\n') >= 0)
 		{
-			if(!newMessages.isEmpty())
+			for(String line : text.split("\n"))
 			{
-				for(ImGuiThreadBridge.TaskMessage msg : newMessages)
+				if(!line.isBlank())
 				{
-					if(msg.text() != null && !msg.text().trim().isEmpty())
-					{
-						TaskLine taskLine = new TaskLine(msg.text(), msg.level());
-						taskLines.add(taskLine);
-					}
+					appendTaskLine(new ImGuiThreadBridge.TaskMessage(line, message.level()));
 				}
-				needsScrollToBottom.set(true);
-			}
-
-			while(taskLines.size() > MAX_TASK_LINES)
-			{
-				taskLines.removeFirst();
 			}
+			return;
+		}
 
-			boolean shouldScroll = needsScrollToBottom.getAndSet(false);
-
-			return new TaskSnapshot(new ArrayList<>(taskLines), shouldScroll);
+		if(taskLinesCount < MAX_TASK_LINES)
+		{
+			taskLines[(taskLinesStart + taskLinesCount) % MAX_TASK_LINES] = message;
+			taskLinesCount++;
 		}
-		finally
+		else
 		{
-			taskLinesLock.writeLock().unlock();
+			taskLines[taskLinesStart] = message;
+			taskLinesStart = (taskLinesStart + 1) % MAX_TASK_LINES;
 		}
+
+		needsScrollToBottom = true;
 	}
 
-	private void renderTaskLines(List<TaskLine> snapshot)
+	private void clearTaskLines()
 	{
-		ImGui.pushStyleVar(imgui.flag.ImGuiStyleVar.ItemSpacing, 0, 2);
+		Arrays.fill(taskLines, null);
+		taskLinesStart = 0;
+		taskLinesCount = 0;
+		needsScrollToBottom = false;
+	}
 
-		for(TaskLine taskLine : snapshot)
+	private void renderTaskLine(ImGuiThreadBridge.TaskMessage taskLine)
+	{
+		float[] color = null;
+		if(taskLine.level() != null)
 		{
-			float[] color = null;
-			switch(taskLine.level)
+			switch(taskLine.level())
 			{
 				case ERROR:
 					color = ImGuiStyleManager.COLOR_ERROR;
@@ -222,21 +322,19 @@ public class MainWindow
 				default:
 					break;
 			}
+		}
 
-			if(color != null)
-			{
-				ImGui.pushStyleColor(imgui.flag.ImGuiCol.Text, color[0], color[1], color[2], color[3]);
-			}
+		if(color != null)
+		{
+			ImGui.pushStyleColor(imgui.flag.ImGuiCol.Text, color[0], color[1], color[2], color[3]);
+		}
 
-			ImGui.textUnformatted(taskLine.text);
+		ImGui.textUnformatted(taskLine.text());
 
-			if(color != null)
-			{
-				ImGui.popStyleColor();
-			}
+		if(color != null)
+		{
+			ImGui.popStyleColor();
 		}
-
-		ImGui.popStyleVar();
 	}
 
 	private void renderBottomPanel()
@@ -311,6 +409,7 @@ public class MainWindow
 	public void setCanStart(boolean canStart)
 	{
 		this.canStart.set(canStart);
+		threadBridge.requestRender();
 
 		if(UnixInstaller.QUICK_AUTOSTART && canStart)
 		{
@@ -325,16 +424,7 @@ public class MainWindow
 
 	public void clearTaskOutput()
 	{
-		taskLinesLock.writeLock().lock();
-		try
-		{
-			taskLines.clear();
-			needsScrollToBottom.set(false);
-		}
-		finally
-		{
-			taskLinesLock.writeLock().unlock();
-		}
+		threadBridge.clearTaskOutput();
 	}
 
 	public void addTaskLine(String line)
@@ -344,26 +434,6 @@ public class MainWindow
 
 	public void addTaskLine(String line, LogLevel level)
 	{
-		if(line != null && !line.trim().isEmpty())
-		{
-			TaskLine taskLine = new TaskLine(line, level);
-
-			taskLinesLock.writeLock().lock();
-			try
-			{
-				taskLines.add(taskLine);
-
-				while(taskLines.size() > MAX_TASK_LINES)
-				{
-					taskLines.removeFirst();
-				}
-
-				needsScrollToBottom.set(true);
-			}
-			finally
-			{
-				taskLinesLock.writeLock().unlock();
-			}
-		}
+		threadBridge.addTaskLine(line, level);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package com.pokeemu.unix.ui;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.lwjgl.glfw.GLFW;
+
+/**
+ * Decides when the launcher window needs a new frame. While nothing changes, the render loop
+ * blocks in glfwWaitEventsTimeout until input arrives or another thread marks the UI dirty.
+ */
+public class RenderScheduler
+{
+	// Upper bound on how long an idle window goes without a frame, keeps text cursors blinking
+	private static final double IDLE_TIMEOUT_SECONDS = 0.5;
+	// ImGui needs a few frames after input to settle hover, focus and popup state
+	private static final int FRAMES_AFTER_WAKE = 3;
+
+	private final AtomicBoolean dirty = new AtomicBoolean(true);
+	private volatile boolean waiting = false;
+	private int pendingFrames = FRAMES_AFTER_WAKE;
+
+	/**
+	 * Requests a new frame. Safe to call from any thread.
+	 */
+	public void markDirty()
+	{
+		if(!dirty.getAndSet(true) && waiting)
+		{
+			GLFW.glfwPostEmptyEvent();
+		}
+	}
+
+	/**
+	 * Called by the render thread before each frame, blocks while there is nothing to draw.
+	 *
+	 * @param animating true while something on screen changes every frame, which keeps the full frame rate
+	 */
+	public void awaitFrame(boolean animating)
+	{
+		if(animating)
+		{
+			dirty.set(false);
+			pendingFrames = FRAMES_AFTER_WAKE;
+			return;
+		}
+
+		if(pendingFrames > 0)
+		{
+			pendingFrames--;
+			return;
+		}
+
+		boolean woken = true;
+
+		waiting = true;
+		try
+		{
+			if(!dirty.get())
+			{
+				long start = System.nanoTime();
+				GLFW.glfwWaitEventsTimeout(IDLE_TIMEOUT_SECONDS);
+				woken = dirty.get() || (System.nanoTime() - start) < IDLE_TIMEOUT_SECONDS * 0.9 * 1_000_000_000L;
+			}
+		}
+		finally
+		{
+			waiting = false;
+		}
+
+		dirty.set(false);
+		pendingFrames = woken ? FRAMES_AFTER_WAKE : 0;
+	}
+}
\ No newline at end of file
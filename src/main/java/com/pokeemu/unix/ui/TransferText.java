@@ -0,0 +1,86 @@
+package com.pokeemu.unix.ui;
+
+/**
+ * Formats download speeds and durations into a caller's reused buffer, without String.format's pattern parsing
+ * and boxing
+ */
+final class TransferText
+{
+	private TransferText()
+	{
+	}
+
+	static void appendSpeed(StringBuilder sb, long bytesPerSecond)
+	{
+		if(bytesPerSecond < 1024)
+		{
+			sb.append(bytesPerSecond).append(" B/s");
+		}
+		else if(bytesPerSecond < 1024 * 1024)
+		{
+			appendTenths(sb, bytesPerSecond * 10 / 1024);
+			sb.append(" KB/s");
+		}
+		else
+		{
+			appendTenths(sb, bytesPerSecond * 10 / (1024 * 1024));
+			sb.append(" MB/s");
+		}
+	}
+
+	/**
+	 * m:ss, or h:mm:ss from an hour up
+	 */
+	static void appendDuration(StringBuilder sb, long seconds)
+	{
+		if(seconds >= 3600)
+		{
+			sb.append(seconds / 3600).append(':');
+			appendTwoDigits(sb, (seconds / 60) % 60);
+		}
+		else
+		{
+			sb.append(seconds / 60);
+		}
+
+		sb.append(':');
+		appendTwoDigits(sb, seconds % 60);
+	}
+
+	/**
+	 * Substitutes {0} and {1} in a message pattern. Only for patterns without MessageFormat quoting or formats.
+	 */
+	static void appendPattern(StringBuilder sb, String pattern, CharSequence arg0, CharSequence arg1)
+	{
+		int length = pattern.length();
+		for(int i = 0; i < length; i++)
+		{
+			char c = pattern.charAt(i);
+			if(c == '{' && i + 2 < length && pattern.charAt(i + 2) == '}')
+			{
+				char index = pattern.charAt(i + 1);
+				if(index == '0' || index == '1')
+				{
+					sb.append(index == '0' ? arg0 : arg1);
+					i += 2;
+					continue;
+				}
+			}
+			sb.append(c);
+		}
+	}
+
+	private static void appendTenths(StringBuilder sb, long tenths)
+	{
+		sb.append(tenths / 10).append('.').append(tenths % 10);
+	}
+
+	private static void appendTwoDigits(StringBuilder sb, long value)
+	{
+		if(value < 10)
+		{
+			sb.append('0');
+		}
+		sb.append(value);
+	}
+}
\ No newline at end of file
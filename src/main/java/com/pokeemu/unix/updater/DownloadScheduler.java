@@ -0,0 +1,72 @@
+package com.pokeemu.unix.updater;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides the order an update's files are downloaded in and the mirror each transfer uses.
+ * <p>
+ * Launch-critical files go first, then assets, then optional content. Within a class the largest files start
+ * first, so a big file can't be left running alone at the end while the other connections sit idle.
+ * Each transfer goes to the enabled mirror with the fewest transfers in flight, earlier mirrors winning a tie.
+ */
+final class DownloadScheduler
+{
+	private static final Comparator<UpdateFile> ORDER = Comparator.comparing(UpdateFile::getPriority)
+			.thenComparing(Comparator.comparingLong(UpdateFile::getEstimatedSize).reversed());
+
+	private final Set<Integer> disabledMirrors;
+	private final int[] inFlight = new int[FeedManager.DOWNLOAD_MIRRORS.length];
+
+	DownloadScheduler(Set<Integer> disabledMirrors)
+	{
+		this.disabledMirrors = disabledMirrors;
+	}
+
+	/**
+	 * @return a copy of the files in the order they should be started
+	 */
+	static List<UpdateFile> order(Collection<UpdateFile> files)
+	{
+		List<UpdateFile> ordered = new ArrayList<>(files);
+		ordered.sort(ORDER);
+		return ordered;
+	}
+
+	/**
+	 * Picks the least-loaded enabled mirror and counts the transfer against it until {@link #release(int)}
+	 *
+	 * @param tried mirrors this file already failed on
+	 * @return the mirror index, -1 once every enabled mirror was tried
+	 */
+	synchronized int acquire(Set<Integer> tried)
+	{
+		int best = -1;
+		for(int mirror = 0; mirror < inFlight.length; mirror++)
+		{
+			if(tried.contains(mirror) || disabledMirrors.contains(mirror))
+			{
+				continue;
+			}
+
+			if(best < 0 || inFlight[mirror] < inFlight[best])
+			{
+				best = mirror;
+			}
+		}
+
+		if(best >= 0)
+		{
+			inFlight[best]++;
+		}
+		return best;
+	}
+
+	synchronized void release(int mirror)
+	{
+		inFlight[mirror]--;
+	}
+}
\ No newline at end of file
@@ -34,6 +34,9 @@ import com.pokeemu.unix.UnixInstaller;
 import com.pokeemu.unix.config.Config;
 import com.pokeemu.unix.ui.IProgressReporter;
 import com.pokeemu.unix.util.CryptoUtil;
+import com.pokeemu.unix.util.HashAlgorithm;
+import com.pokeemu.unix.util.HashStrategy;
+import com.pokeemu.unix.util.PathSanitizer;
 import com.pokeemu.unix.util.Util;
 
 import javax.xml.XMLConstants;
@@ -596,7 +599,8 @@ public class FeedManager
 	private static List<UpdateFile> parseUpdateFiles(Element update_feed)
 	{
 		List<UpdateFile> tempFiles = new ArrayList<>();
-		File current_directory = new File(".");
+		// One sanitizer for the whole feed, the entries share their directories
+		PathSanitizer sanitizer = new PathSanitizer(new File("."));
 
 		NodeList filesNodeList = update_feed.getElementsByTagName("file");
 		for(int x = 0; x < filesNodeList.getLength(); x++)
@@ -605,14 +609,39 @@ public class FeedManager
 			if(fileT.getNodeType() == Node.ELEMENT_NODE)
 			{
 				Element file = (Element) fileT;
-				String sanitized = Util.sanitize(current_directory, file.getAttribute("name"));
+				String sanitized = sanitizer.sanitize(file.getAttribute("name"));
 
 				if(sanitized != null && file.hasAttribute("sha256"))
 				{
 					boolean only_if_not_exists = parseBoolean(file.getAttribute("only_if_not_exists"));
 
+					HashStrategy fastHashStrategy = null;
+					for(HashAlgorithm algorithm : HashAlgorithm.FAST_ALGORITHMS)
+					{
+						if(file.hasAttribute(algorithm.getFeedAttribute()))
+						{
+							fastHashStrategy = algorithm;
+							break;
+						}
+					}
+
+					List<String> chunkSha256 = null;
+					if(file.hasAttribute("chunk_size"))
+					{
+						chunkSha256 = new ArrayList<>();
+						NodeList chunkNodeList = file.getElementsByTagName("chunk");
+						for(int c = 0; c < chunkNodeList.getLength(); c++)
+						{
+							chunkSha256.add(((Element) chunkNodeList.item(c)).getAttribute("sha256"));
+						}
+					}
+
+					boolean optional = parseBoolean(file.getAttribute("optional"));
+
 					UpdateFile f = new UpdateFile(sanitized, file.getAttribute("sha256"),
-							file.getAttribute("size"), only_if_not_exists);
+							file.getAttribute("size"), only_if_not_exists, optional, fastHashStrategy,
+							fastHashStrategy != null ? file.getAttribute(fastHashStrategy.getFeedAttribute()) : null,
+							file.getAttribute("chunk_size"), chunkSha256);
 					tempFiles.add(f);
 				}
 			}
@@ -853,7 +882,7 @@ public class FeedManager
 		}
 
 		@Override
-		public void setDownloadSpeed(String speed)
+		public void setDownloadSpeed(long bytesPerSecond, long secondsLeft, long[] mirrorBytesPerSecond)
 		{
 		}
 	}
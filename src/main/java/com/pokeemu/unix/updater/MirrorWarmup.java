@@ -0,0 +1,127 @@
+package com.pokeemu.unix.updater;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.pokeemu.unix.LauncherUtils;
+
+/**
+ * Resolves every mirror and opens a connection to each at process start, so the first feed request
+ * doesn't pay for DNS and the TLS handshake. The connections live in the pool of the shared
+ * {@link LauncherUtils#httpClient}, which the feed download and UpdaterService reuse.
+ */
+public class MirrorWarmup
+{
+	private static final int WARMUP_TIMEOUT_SECONDS = 5;
+
+	/**
+	 * @param version the protocol negotiated with the mirror, null if no connection was opened
+	 */
+	private record Result(String host, long resolveNanos, long connectNanos, HttpClient.Version version) {}
+
+	public static void run()
+	{
+		long start = System.nanoTime();
+		List<Result> results = new ArrayList<>();
+
+		try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+		{
+			List<Future<Result>> futures = new ArrayList<>();
+			// Downloads are spread over every enabled mirror, so each of them gets a connection
+			for(String mirror : FeedManager.DOWNLOAD_MIRRORS)
+			{
+				futures.add(executor.submit(() -> warm(mirror)));
+			}
+
+			for(Future<Result> future : futures)
+			{
+				try
+				{
+					results.add(future.get());
+				}
+				catch(ExecutionException e)
+				{
+					System.out.println("Mirror warm-up failed: " + e.getCause());
+				}
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		// The mirrors are set up in parallel, here and on the download path alike, so only the slowest one counts
+		long setupNanos = 0;
+		for(Result result : results)
+		{
+			String connection = result.version() == null ? ""
+					: ", " + result.version() + " connection ready in " + toMillis(result.connectNanos()) + " ms";
+			System.out.println("Mirror warm-up: " + result.host() + " resolved in "
+					+ toMillis(result.resolveNanos()) + " ms" + connection);
+			setupNanos = Math.max(setupNanos, result.resolveNanos() + result.connectNanos());
+		}
+
+		System.out.println("Mirror warm-up finished in " + toMillis(System.nanoTime() - start) + " ms, up to "
+				+ toMillis(setupNanos) + " ms of connection setup moved off the download path");
+	}
+
+	private static Result warm(String mirror) throws UnknownHostException
+	{
+		URI uri = URI.create(mirror);
+		String host = uri.getHost();
+
+		long resolveStart = System.nanoTime();
+		// Fills the JVM's address cache, the client's own lookup for this host is then free
+		InetAddress.getAllByName(host);
+		long resolveNanos = System.nanoTime() - resolveStart;
+
+		HttpRequest request = HttpRequest.newBuilder(uri)
+				.method("HEAD", HttpRequest.BodyPublishers.noBody())
+				.setHeader("User-Agent", LauncherUtils.httpClientUserAgent)
+				.timeout(Duration.ofSeconds(WARMUP_TIMEOUT_SECONDS))
+				.build();
+
+		long connectStart = System.nanoTime();
+		CompletableFuture<HttpResponse<Void>> response =
+				LauncherUtils.httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+
+		try
+		{
+			// Any status will do, only the connection left in the pool matters
+			HttpClient.Version version = response.get(WARMUP_TIMEOUT_SECONDS, TimeUnit.SECONDS).version();
+			return new Result(host, resolveNanos, System.nanoTime() - connectStart, version);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			response.cancel(true);
+		}
+		catch(ExecutionException | TimeoutException e)
+		{
+			response.cancel(true);
+			System.out.println("Mirror warm-up: couldn't connect to " + host + ": " + e);
+		}
+
+		return new Result(host, resolveNanos, 0, null);
+	}
+
+	private static long toMillis(long nanos)
+	{
+		return nanos / 1_000_000;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,288 @@
+package com.pokeemu.unix.updater;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pokeemu.unix.LauncherUtils;
+
+/**
+ * Hands out the temp files downloads are written to, all in one directory per launcher session under the install.
+ * Whatever a crashed launcher left behind is found by listing the few session directories, never by walking the
+ * install with its screenshots and caches.
+ * <p>
+ * A session holds a lock on a file in its directory for as long as it runs, the lock is what tells a live session
+ * from an orphan. Process ids can't, a Flatpak sandbox's PID namespace hands the same ids to every run.
+ */
+public class TempFileManager
+{
+	private static final String TEMP_DIR = ".download-tmp";
+	private static final String SESSION_PREFIX = "session-";
+	private static final String LOCK_FILE = ".owner-lock";
+	private static final String TEMP_PREFIX = "pokemmo_download_";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	// Written once the temp files of launchers from before the session directories were swept from the install
+	private static final String LEGACY_SWEPT_MARKER = ".legacy-swept";
+
+	private final AtomicLong counter = new AtomicLong();
+
+	// Created with the first temp file, the lock is released when the channel closes
+	private Path sessionDir;
+	private FileChannel sessionLock;
+
+	/**
+	 * Deletes the temp directories of launcher sessions which are no longer running.
+	 * The cost only grows with the number of orphans, apart from a one-time sweep of the install for temp files of
+	 * older launchers. It runs off the startup path regardless.
+	 */
+	public static void cleanupOrphanedFiles(String installDir)
+	{
+		if(installDir == null)
+		{
+			return;
+		}
+
+		Path tempRoot = Path.of(installDir, TEMP_DIR);
+		if(!Files.exists(tempRoot.resolve(LEGACY_SWEPT_MARKER)))
+		{
+			cleanupLegacyFiles(Path.of(installDir), tempRoot);
+		}
+
+		if(!Files.isDirectory(tempRoot))
+		{
+			return;
+		}
+
+		try(DirectoryStream<Path> sessionDirs = Files.newDirectoryStream(tempRoot, SESSION_PREFIX + "*"))
+		{
+			for(Path sessionDir : sessionDirs)
+			{
+				cleanupIfOrphaned(sessionDir);
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Failed to cleanup temp files: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Earlier launchers wrote their temp files next to the target files in the install, this walks the install once
+	 * to remove what they left behind.
+	 */
+	private static void cleanupLegacyFiles(Path installPath, Path tempRoot)
+	{
+		if(!Files.isDirectory(installPath))
+		{
+			return;
+		}
+
+		try
+		{
+			Files.walkFileTree(installPath, new SimpleFileVisitor<>()
+			{
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+				{
+					// Launcher bookkeeping such as the staging areas never held these
+					if(!dir.equals(installPath) && dir.getFileName().toString().startsWith("."))
+					{
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+				{
+					String name = file.getFileName().toString();
+					if(attrs.isRegularFile() && name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX))
+					{
+						Files.deleteIfExists(file);
+						System.out.println("Cleaned up temp file: " + installPath.relativize(file));
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e)
+				{
+					System.err.println("Error scanning for temp files: " + e.getMessage());
+					return FileVisitResult.CONTINUE;
+				}
+			});
+
+			Files.createDirectories(tempRoot);
+			Files.write(tempRoot.resolve(LEGACY_SWEPT_MARKER), new byte[0]);
+		}
+		catch(IOException e)
+		{
+			// Tried again on the next start
+			System.err.println("Failed to cleanup temp files: " + e.getMessage());
+		}
+	}
+
+	private static void cleanupIfOrphaned(Path sessionDir)
+	{
+		try(FileChannel channel = FileChannel.open(sessionDir.resolve(LOCK_FILE), StandardOpenOption.WRITE))
+		{
+			if(channel.tryLock() != null)
+			{
+				// The owner is gone and no new session ever reuses a directory, so this one can go while it's locked
+				deleteSessionDir(sessionDir);
+			}
+		}
+		catch(OverlappingFileLockException e)
+		{
+			// A live session of this process
+		}
+		catch(NoSuchFileException e)
+		{
+			// A session between creating its directory and its lock file, or one that crashed right there.
+			// Only empty either way, the session starts over if its directory disappears.
+			try
+			{
+				Files.deleteIfExists(sessionDir);
+			}
+			catch(IOException ignored)
+			{
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Failed to cleanup " + sessionDir + ": " + e.getMessage());
+		}
+	}
+
+	private static void deleteSessionDir(Path sessionDir) throws IOException
+	{
+		// Flat, temp files are named after the file only
+		try(DirectoryStream<Path> temps = Files.newDirectoryStream(sessionDir))
+		{
+			for(Path temp : temps)
+			{
+				Files.deleteIfExists(temp);
+				if(!temp.getFileName().toString().equals(LOCK_FILE))
+				{
+					System.out.println("Cleaned up temp file: " + temp.getFileName());
+				}
+			}
+		}
+		Files.deleteIfExists(sessionDir);
+	}
+
+	private synchronized Path getSessionDir() throws IOException
+	{
+		if(sessionDir != null)
+		{
+			return sessionDir;
+		}
+
+		Path tempRoot = Path.of(LauncherUtils.getPokemmoDir(), TEMP_DIR);
+		Files.createDirectories(tempRoot);
+
+		// Another launcher's cleanup may take a directory it sees before the lock is held, start over with a new one
+		for(int attempt = 0; attempt < 3; attempt++)
+		{
+			Path dir = Files.createTempDirectory(tempRoot, SESSION_PREFIX);
+			Path lockFile = dir.resolve(LOCK_FILE);
+
+			FileChannel channel;
+			try
+			{
+				channel = FileChannel.open(lockFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			}
+			catch(NoSuchFileException e)
+			{
+				continue;
+			}
+
+			try
+			{
+				channel.lock();
+			}
+			catch(OverlappingFileLockException e)
+			{
+				// This process's own cleanup holds it for the moment
+				channel.close();
+				continue;
+			}
+
+			if(!Files.exists(lockFile))
+			{
+				channel.close();
+				continue;
+			}
+
+			sessionDir = dir;
+			sessionLock = channel;
+			return dir;
+		}
+
+		throw new IOException("Failed to create a temp directory in " + tempRoot);
+	}
+
+	/**
+	 * @param target where the file goes once verified, on the same file system so it can be moved there
+	 */
+	Path createTempFile(Path target) throws IOException
+	{
+		String name = TEMP_PREFIX + target.getFileName() + "_" + counter.incrementAndGet() + TEMP_SUFFIX;
+
+		return getSessionDir().resolve(name);
+	}
+
+	void deleteFile(Path file)
+	{
+		if(file != null)
+		{
+			try
+			{
+				Files.deleteIfExists(file);
+			}
+			catch(IOException ignored)
+			{
+			}
+		}
+	}
+
+	synchronized void cleanup()
+	{
+		if(sessionDir == null)
+		{
+			return;
+		}
+
+		try
+		{
+			deleteSessionDir(sessionDir);
+		}
+		catch(IOException e)
+		{
+			// Unlocked below, the next start removes what's left
+			System.err.println("Failed to cleanup " + sessionDir + ": " + e.getMessage());
+		}
+
+		try
+		{
+			sessionLock.close();
+		}
+		catch(IOException ignored)
+		{
+		}
+
+		// A download still finishing starts a new session
+		sessionDir = null;
+		sessionLock = null;
+	}
+}
\ No newline at end of file
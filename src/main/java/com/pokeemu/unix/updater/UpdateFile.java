@@ -1,5 +1,19 @@
 package com.pokeemu.unix.updater;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.pokeemu.unix.LauncherUtils;
+import com.pokeemu.unix.config.Config;
+import com.pokeemu.unix.enums.DownloadPriority;
+import com.pokeemu.unix.util.HashAlgorithm;
+import com.pokeemu.unix.util.HashStrategy;
+import com.pokeemu.unix.util.Util;
+
 public class UpdateFile
 {
 	public final String name;
@@ -7,13 +21,50 @@ public class UpdateFile
 	public final boolean only_if_not_exists;
 	public final int size;
 
+	/**
+	 * Marked optional by the feed, the game runs without it and it is installed in the background
+	 */
+	public final boolean optional;
+
 	public final boolean sizeValid;
 
+	/**
+	 * Optional non-authoritative hash from the feed, used to re-verify installed files cheaply
+	 */
+	public final HashStrategy fastHashStrategy;
+	public final String fastHash;
+
+	/**
+	 * Optional sha256 of each consecutive chunk_size slice of the file, letting large files be
+	 * verified on all cores and repaired one chunk at a time
+	 */
+	public final long chunkSize;
+	private final List<String> chunkSha256;
+
 	public UpdateFile(String name, String sha256, String size, boolean only_if_not_exists)
+	{
+		this(name, sha256, size, only_if_not_exists, false, null, null, null, null);
+	}
+
+	public UpdateFile(String name, String sha256, String size, boolean only_if_not_exists, boolean optional,
+					  HashStrategy fastHashStrategy, String fastHash,
+					  String chunkSize, List<String> chunkSha256)
 	{
 		this.name = name;
 		this.sha256 = sha256;
 		this.only_if_not_exists = only_if_not_exists;
+		this.optional = optional;
+
+		if(fastHashStrategy != null && fastHash != null && !fastHash.isEmpty())
+		{
+			this.fastHashStrategy = fastHashStrategy;
+			this.fastHash = fastHash;
+		}
+		else
+		{
+			this.fastHashStrategy = null;
+			this.fastHash = null;
+		}
 
 		int size_t = -1;
 		boolean valid = false;
@@ -42,6 +93,40 @@ public class UpdateFile
 
 		this.size = size_t;
 		this.sizeValid = valid;
+
+		long chunk_size_t = parseChunkSize(chunkSize);
+		if(valid && chunk_size_t > 0 && chunkSha256 != null &&
+				chunkSha256.size() == (size_t + chunk_size_t - 1) / chunk_size_t)
+		{
+			this.chunkSize = chunk_size_t;
+			this.chunkSha256 = List.copyOf(chunkSha256);
+		}
+		else
+		{
+			if(chunk_size_t > 0)
+			{
+				System.err.println("Ignoring inconsistent chunk list for " + name);
+			}
+			this.chunkSize = -1;
+			this.chunkSha256 = null;
+		}
+	}
+
+	private static long parseChunkSize(String chunkSize)
+	{
+		if(chunkSize == null || chunkSize.isEmpty())
+		{
+			return -1;
+		}
+
+		try
+		{
+			return Long.parseLong(chunkSize);
+		}
+		catch(NumberFormatException e)
+		{
+			return -1;
+		}
 	}
 
 	public boolean shouldDownload()
@@ -62,4 +147,110 @@ public class UpdateFile
 	{
 		return sizeValid && size > 0;
 	}
+
+	/**
+	 * @return the size from the feed, or a nominal 1 MiB for scheduling and progress when the feed has none
+	 */
+	public long getEstimatedSize()
+	{
+		return hasSizeForProgress() ? size : 1024 * 1024;
+	}
+
+	public DownloadPriority getPriority()
+	{
+		if(optional || LauncherUtils.isNativeLibraryForOtherPlatform(name))
+		{
+			return DownloadPriority.OPTIONAL;
+		}
+
+		// Top-level files are the client jar and its bookkeeping, lib/ holds what it links against
+		if(name.indexOf('/') < 0 || name.startsWith("lib/"))
+		{
+			return DownloadPriority.LAUNCH_CRITICAL;
+		}
+
+		// The local config may only defer assets, never what the client needs to boot
+		for(String prefix : Config.OPTIONAL_CONTENT)
+		{
+			if(name.startsWith(prefix))
+			{
+				return DownloadPriority.OPTIONAL;
+			}
+		}
+
+		return DownloadPriority.ASSET;
+	}
+
+	public boolean hasChunks()
+	{
+		return chunkSha256 != null;
+	}
+
+	public int getChunkCount()
+	{
+		return hasChunks() ? chunkSha256.size() : 0;
+	}
+
+	/**
+	 * Checks a copy of this file. Uses the fast hash when the feed carries one and an authoritative
+	 * check isn't requested, as the sha256 was already enforced when the file was downloaded.
+	 * Chunked files are checked against their per-chunk sha256 list, in parallel.
+	 *
+	 * @param authoritative only accept a collision resistant hash, e.g. for a fresh download or a full repair
+	 */
+	public boolean isCopyValid(File f, boolean authoritative)
+	{
+		if(fastHashStrategy != null && (!authoritative || fastHashStrategy.isAuthoritative()))
+		{
+			return fastHash.equalsIgnoreCase(fastHashStrategy.calculate(f));
+		}
+
+		if(hasChunks())
+		{
+			return f.isFile() && findCorruptChunks(f).length == 0;
+		}
+
+		return sha256.equalsIgnoreCase(HashAlgorithm.SHA256.calculate(f));
+	}
+
+	/**
+	 * @return the indices of every chunk of the given copy which doesn't match the feed, all of them if unreadable
+	 */
+	public int[] findCorruptChunks(File f)
+	{
+		int chunkCount = getChunkCount();
+		if(f.length() != size)
+		{
+			return IntStream.range(0, chunkCount).toArray();
+		}
+
+		// Positional reads on a shared channel are safe to issue concurrently
+		try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ))
+		{
+			return IntStream.range(0, chunkCount)
+					.parallel()
+					.filter(chunk -> !isChunkValid(channel, chunk))
+					.toArray();
+		}
+		catch(IOException e)
+		{
+			return IntStream.range(0, chunkCount).toArray();
+		}
+	}
+
+	public boolean isChunkValid(FileChannel channel, int chunk)
+	{
+		return chunkSha256.get(chunk).equalsIgnoreCase(
+				Util.calculateHash("SHA-256", channel, getChunkOffset(chunk), getChunkLength(chunk)));
+	}
+
+	public long getChunkOffset(int chunk)
+	{
+		return chunk * chunkSize;
+	}
+
+	public long getChunkLength(int chunk)
+	{
+		return Math.min(chunkSize, size - getChunkOffset(chunk));
+	}
 }
\ No newline at end of file
@@ -0,0 +1,486 @@
+package com.pokeemu.unix.updater;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stages verified downloads outside the live install and swaps them in as one unit.
+ * A journal is written before the first live file is replaced, so an interrupted commit
+ * is rolled forward on the next start using only the journal - nothing is rehashed.
+ * <p>
+ * A deferred transaction holds optional content downloaded while the game may already be running. It is only
+ * prepared, its journal written without touching the live install, and the next start rolls it forward.
+ */
+public class UpdateTransaction
+{
+	private static final String STAGING_DIR = ".update-staging";
+	private static final String BACKUP_DIR = ".backup";
+	private static final String JOURNAL_FILE = ".update-journal";
+	private static final String JOURNAL_HEADER = "pokemmo-update-journal v1";
+
+	// Held while recovering, two roll-forwards of one journal would move each other's files into the backup
+	private static final String RECOVERY_LOCK_FILE = ".update-lock";
+
+	// Locked inside a staging area while its transaction is running, recovery leaves a locked area alone
+	private static final String STAGING_LOCK_FILE = ".staging-lock";
+
+	private static final String DEFERRED_STAGING_DIR = ".update-staging-deferred";
+	private static final String DEFERRED_JOURNAL_FILE = ".update-journal-deferred";
+
+	// Committed last so an install only reports the new revision once every other file is in place
+	private static final String REVISION_FILE = "revision.txt";
+
+	private final Path installDir;
+	private final Path stagingDir;
+	private final Path backupDir;
+	private final Path journalFile;
+
+	private final Set<String> staged = ConcurrentHashMap.newKeySet();
+	private volatile boolean failed = false;
+	// Open while this transaction owns the staging area, closing it releases the lock
+	private FileChannel stagingLock;
+
+	UpdateTransaction(Path installDir)
+	{
+		this(installDir, STAGING_DIR, JOURNAL_FILE);
+	}
+
+	private UpdateTransaction(Path installDir, String stagingDir, String journalFile)
+	{
+		this.installDir = installDir;
+		this.stagingDir = installDir.resolve(stagingDir);
+		this.backupDir = this.stagingDir.resolve(BACKUP_DIR);
+		this.journalFile = installDir.resolve(journalFile);
+	}
+
+	static UpdateTransaction deferred(Path installDir)
+	{
+		return new UpdateTransaction(installDir, DEFERRED_STAGING_DIR, DEFERRED_JOURNAL_FILE);
+	}
+
+	/**
+	 * Finishes or discards whatever a previous, interrupted update left behind.
+	 * Must run before the install is validated or launched.
+	 */
+	public static void recoverInterrupted(String installDir)
+	{
+		if(installDir == null || !Files.isDirectory(Path.of(installDir)))
+		{
+			return;
+		}
+
+		// In the order they were prepared, a session defers its optional files only after committing the rest
+		for(UpdateTransaction transaction : List.of(new UpdateTransaction(Path.of(installDir)),
+				deferred(Path.of(installDir))))
+		{
+			try
+			{
+				transaction.recover(false);
+			}
+			catch(IOException e)
+			{
+				System.err.println("Failed to recover interrupted update: " + e.getMessage());
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @throws IOException also when another launcher is still using this staging area
+	 */
+	void begin() throws IOException
+	{
+		Files.createDirectories(installDir);
+		recover(true);
+	}
+
+	Path getStagingPath(String name)
+	{
+		return stagingDir.resolve(name);
+	}
+
+	/**
+	 * Moves a fully verified file into the staging area. The live install is not touched.
+	 */
+	void stage(String name, Path verifiedFile) throws IOException
+	{
+		Path target = getStagingPath(name);
+		Files.createDirectories(target.getParent());
+		move(verifiedFile, target);
+		staged.add(name);
+	}
+
+	void markFailed()
+	{
+		failed = true;
+	}
+
+	boolean hasFailed()
+	{
+		return failed;
+	}
+
+	void commit() throws IOException
+	{
+		List<String> entries = getOrderedEntries();
+		writeJournal(entries);
+
+		// Including the entry being applied, it may have moved its live file to the backup before failing
+		List<String> attempted = new ArrayList<>();
+		try
+		{
+			for(String name : entries)
+			{
+				attempted.add(name);
+				apply(name);
+			}
+			syncParents(installDir, entries);
+		}
+		catch(IOException e)
+		{
+			rollback(attempted);
+			throw e;
+		}
+
+		finish();
+	}
+
+	/**
+	 * Writes the journal without applying it, the staged files replace the live ones on the next start.
+	 */
+	void prepare() throws IOException
+	{
+		writeJournal(getOrderedEntries());
+		releaseStaging();
+	}
+
+	void abort()
+	{
+		try
+		{
+			finish();
+		}
+		catch(IOException e)
+		{
+			System.err.println("Failed to discard update staging area: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Recovery has a single owner at a time, across this process's threads and other launchers sharing the
+	 * install. Whoever waited finds the journal already applied.
+	 *
+	 * @param claim lock a fresh staging area for this transaction before another recovery can see it
+	 */
+	private void recover(boolean claim) throws IOException
+	{
+		synchronized(UpdateTransaction.class)
+		{
+			try(FileChannel lockChannel = FileChannel.open(installDir.resolve(RECOVERY_LOCK_FILE),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+			{
+				// Released when the channel closes
+				lockChannel.lock();
+				recoverLocked();
+
+				if(claim)
+				{
+					Files.createDirectories(stagingDir);
+					lockStaging();
+				}
+			}
+		}
+	}
+
+	private void recoverLocked() throws IOException
+	{
+		// E.g. optional downloads still running behind the game of an earlier launcher
+		if(isStagingInUse())
+		{
+			System.out.println("Leaving " + stagingDir + " alone, another launcher is still using it");
+			return;
+		}
+
+		if(!Files.exists(journalFile))
+		{
+			// Staging without a journal means the update never reached its commit; the live files are untouched
+			if(Files.exists(stagingDir))
+			{
+				System.out.println("Discarding incomplete update staging area");
+				deleteRecursively(stagingDir);
+			}
+			return;
+		}
+
+		List<String> lines = Files.readAllLines(journalFile, StandardCharsets.UTF_8);
+		if(lines.isEmpty() || !JOURNAL_HEADER.equals(lines.getFirst()))
+		{
+			System.err.println("Ignoring unreadable update journal " + journalFile);
+			finish();
+			return;
+		}
+
+		// Every staged file was verified and synced before the journal was written, so rolling forward is safe
+		System.out.println("Resuming interrupted update commit (" + (lines.size() - 1) + " files)");
+		List<String> entries = new ArrayList<>();
+		for(String name : lines.subList(1, lines.size()))
+		{
+			if(!name.isEmpty())
+			{
+				apply(name);
+				entries.add(name);
+			}
+		}
+		syncParents(installDir, entries);
+
+		finish();
+	}
+
+	private List<String> getOrderedEntries()
+	{
+		List<String> entries = new ArrayList<>(staged);
+		entries.sort(Comparator.comparing((String name) -> name.equals(REVISION_FILE))
+				.thenComparing(Comparator.naturalOrder()));
+		return entries;
+	}
+
+	private void writeJournal(List<String> entries) throws IOException
+	{
+		// The staged files' data was forced when they were written, their names must be durable before the journal
+		syncParents(stagingDir, entries);
+
+		StringBuilder sb = new StringBuilder(JOURNAL_HEADER).append('\n');
+		for(String name : entries)
+		{
+			sb.append(name).append('\n');
+		}
+
+		Path tempJournal = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+		try(FileChannel channel = FileChannel.open(tempJournal, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+			while(buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+
+		move(tempJournal, journalFile);
+		syncDirectory(installDir);
+	}
+
+	/**
+	 * Idempotent: an entry whose staged file is gone has already been swapped in.
+	 */
+	private void apply(String name) throws IOException
+	{
+		Path source = getStagingPath(name);
+		if(!Files.exists(source))
+		{
+			return;
+		}
+
+		Path target = installDir.resolve(name);
+		if(Files.exists(target))
+		{
+			Path backup = backupDir.resolve(name);
+			Files.createDirectories(backup.getParent());
+			move(target, backup);
+		}
+
+		Files.createDirectories(target.getParent());
+		move(source, target);
+	}
+
+	/**
+	 * Puts the live files back from the backup. The backup is only discarded once every file was restored,
+	 * otherwise the journal and the staging area stay for the next start to finish the update.
+	 */
+	private void rollback(List<String> attempted)
+	{
+		boolean restored = true;
+		for(int i = attempted.size() - 1; i >= 0; i--)
+		{
+			String name = attempted.get(i);
+			Path target = installDir.resolve(name);
+			Path backup = backupDir.resolve(name);
+
+			try
+			{
+				if(Files.exists(backup))
+				{
+					move(backup, target);
+				}
+				else if(!Files.exists(getStagingPath(name)))
+				{
+					// Swapped in with nothing to replace, the staged file still being there means it never was
+					Files.deleteIfExists(target);
+				}
+			}
+			catch(IOException e)
+			{
+				System.err.println("Failed to roll back " + name + ": " + e.getMessage());
+				restored = false;
+			}
+		}
+
+		if(restored)
+		{
+			abort();
+			return;
+		}
+
+		System.err.println("Keeping " + journalFile + " and the backups in " + backupDir
+				+ ", the update is finished on the next start");
+		try
+		{
+			releaseStaging();
+		}
+		catch(IOException e)
+		{
+			System.err.println("Failed to release update staging area: " + e.getMessage());
+		}
+	}
+
+	private void finish() throws IOException
+	{
+		try
+		{
+			Files.deleteIfExists(journalFile);
+			deleteRecursively(stagingDir);
+		}
+		finally
+		{
+			releaseStaging();
+		}
+	}
+
+	private void lockStaging() throws IOException
+	{
+		FileChannel channel = FileChannel.open(stagingDir.resolve(STAGING_LOCK_FILE),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		boolean locked = false;
+		try
+		{
+			locked = channel.tryLock() != null;
+		}
+		catch(OverlappingFileLockException e)
+		{
+			// Another transaction of this process
+		}
+		finally
+		{
+			if(!locked)
+			{
+				channel.close();
+			}
+		}
+
+		if(!locked)
+		{
+			throw new IOException("Another update is using " + stagingDir);
+		}
+
+		stagingLock = channel;
+	}
+
+	private void releaseStaging() throws IOException
+	{
+		if(stagingLock != null)
+		{
+			stagingLock.close();
+			stagingLock = null;
+		}
+	}
+
+	private boolean isStagingInUse() throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(stagingDir.resolve(STAGING_LOCK_FILE), StandardOpenOption.WRITE))
+		{
+			return channel.tryLock() == null;
+		}
+		catch(NoSuchFileException e)
+		{
+			return false;
+		}
+		catch(OverlappingFileLockException e)
+		{
+			// Held by another transaction of this process
+			return true;
+		}
+	}
+
+	private static void syncParents(Path root, List<String> entries)
+	{
+		Set<Path> directories = new HashSet<>();
+		for(String name : entries)
+		{
+			directories.add(root.resolve(name).getParent());
+		}
+
+		for(Path directory : directories)
+		{
+			syncDirectory(directory);
+		}
+	}
+
+	/**
+	 * Makes the renames into a directory durable. Best effort, not every filesystem can sync a directory.
+	 */
+	private static void syncDirectory(Path directory)
+	{
+		try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ))
+		{
+			channel.force(true);
+		}
+		catch(IOException e)
+		{
+			System.err.println("Failed to sync directory " + directory + ": " + e.getMessage());
+		}
+	}
+
+	private static void move(Path source, Path target) throws IOException
+	{
+		try
+		{
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e)
+		{
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static void deleteRecursively(Path path) throws IOException
+	{
+		if(!Files.exists(path))
+		{
+			return;
+		}
+
+		try(var pathStream = Files.walk(path))
+		{
+			for(Path p : pathStream.sorted(Comparator.reverseOrder()).toList())
+			{
+				Files.deleteIfExists(p);
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -2,9 +2,15 @@ package com.pokeemu.unix.updater;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -13,17 +19,24 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.pokeemu.unix.LauncherUtils;
 import com.pokeemu.unix.UnixInstaller;
 import com.pokeemu.unix.config.Config;
+import com.pokeemu.unix.enums.DownloadPriority;
+import com.pokeemu.unix.enums.RepairMode;
 import com.pokeemu.unix.ui.IProgressReporter;
+import com.pokeemu.unix.util.FileDownloadSubscriber;
 import com.pokeemu.unix.util.Util;
 
 public class UpdaterService
@@ -31,23 +44,41 @@ public class UpdaterService
 	private final UnixInstaller parent;
 	private final IProgressReporter progressReporter;
 	private final ExecutorService downloadExecutor;
+	// Bounds the transfers in flight, fair so they start in the order they were submitted
+	private final Semaphore transferSlots;
+	private final ExecutorService optionalExecutor;
 	private final ScheduledExecutorService speedCalculator;
 	private final ProgressTracker progress;
 	private final TempFileManager tempFiles;
 
 	private final Set<Integer> disabledMirrors = Collections.synchronizedSet(new HashSet<>());
+	private final DownloadScheduler scheduler = new DownloadScheduler(disabledMirrors);
 	private volatile boolean isShuttingDown = false;
-
-	static
-	{
-		TempFileManager.cleanupOrphanedFiles();
-	}
-
+	private volatile boolean optionalCancelled = false;
+	private volatile boolean optionalDetached = false;
+	private volatile CompletableFuture<Void> optionalDownloads = CompletableFuture.completedFuture(null);
+	private volatile VerificationIndex verificationIndex;
+
+	private static final String[] USER_CONTENT_DIRS = {
+			"cache", "config", "data/mods", "log", "logs", "roms", "screenshots"
+	};
+
+	/**
+	 * @param parent null when there is no installer window, only {@link #startOptionalCheck()} may be used then
+	 */
 	public UpdaterService(UnixInstaller parent, IProgressReporter progressReporter)
 	{
 		this.parent = parent;
 		this.progressReporter = progressReporter;
-		this.downloadExecutor = Executors.newFixedThreadPool(Config.NETWORK_THREADS);
+		// A transfer mostly waits on the network, a virtual thread parks instead of holding a platform thread
+		this.downloadExecutor = Executors.newVirtualThreadPerTaskExecutor();
+		this.transferSlots = new Semaphore(Config.NETWORK_THREADS, true);
+		// Not a daemon, the launcher process stays alive behind the game until the optional files are staged
+		this.optionalExecutor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "optional-download");
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		});
 		this.speedCalculator = Executors.newSingleThreadScheduledExecutor();
 		this.progress = new ProgressTracker(progressReporter);
 		this.tempFiles = new TempFileManager();
@@ -56,6 +87,14 @@ public class UpdaterService
 	}
 
 	public void startUpdate(boolean repair, boolean clean)
+	{
+		startUpdate(repair ? RepairMode.FULL : null, clean);
+	}
+
+	/**
+	 * @param repairMode the repair tier to run, or null for a regular update
+	 */
+	public void startUpdate(RepairMode repairMode, boolean clean)
 	{
 		if(parent.isUpdating())
 		{
@@ -68,7 +107,8 @@ public class UpdaterService
 			try
 			{
 				if(clean) performCleanInstall();
-				if(repair) performRepair();
+				verificationIndex = VerificationIndex.load(Path.of(LauncherUtils.getPokemmoDir()));
+				if(repairMode != null) performRepair(repairMode);
 				else performUpdate();
 			}
 			catch(Exception e)
@@ -94,12 +134,25 @@ public class UpdaterService
 		parent.createSymlinkedDirectories();
 	}
 
-	private void performRepair()
+	private void performRepair(RepairMode repairMode)
 	{
-		clearCaches();
+		if(repairMode.clearsCaches())
+		{
+			clearCaches();
+		}
 		progressReporter.setStatus(Config.getString("status.game_repair"), 30);
 
-		List<UpdateFile> toRepair = findFilesToRepair();
+		List<UpdateFile> toRepair = findFilesToRepair(repairMode);
+		if(toRepair == null)
+		{
+			return; // Error already reported
+		}
+
+		if(repairMode.reportsStrayFiles())
+		{
+			reportStrayFiles();
+		}
+
 		if(!toRepair.isEmpty())
 		{
 			downloadFiles(toRepair);
@@ -116,6 +169,11 @@ public class UpdaterService
 		progressReporter.setStatus(Config.getString("status.game_download"), 30);
 
 		List<UpdateFile> toDownload = findFilesToUpdate();
+		if(toDownload == null)
+		{
+			return; // Error already reported
+		}
+
 		if(!toDownload.isEmpty())
 		{
 			downloadFiles(toDownload);
@@ -126,21 +184,26 @@ public class UpdaterService
 		}
 	}
 
-	private List<UpdateFile> findFilesToRepair()
+	private List<UpdateFile> findFilesToRepair(RepairMode repairMode)
 	{
-		return findFilesNeedingDownload(true);
+		return findFilesNeedingDownload(true, repairMode.trustsIndex(), repairMode.usesAuthoritativeHash());
 	}
 
 	private List<UpdateFile> findFilesToUpdate()
 	{
-		return findFilesNeedingDownload(false);
+		return findFilesNeedingDownload(false, false, false);
 	}
 
-	private List<UpdateFile> findFilesNeedingDownload(boolean isRepair)
+	/**
+	 * Hashes the candidate files in parallel across all cores.
+	 *
+	 * @param trustIndex skip hashing files whose size and mtime still match the verification index
+	 * @param authoritative check sha256 even when the feed offers a fast hash
+	 * @return the files which need downloading, or null if an error was reported
+	 */
+	private List<UpdateFile> findFilesNeedingDownload(boolean isRepair, boolean trustIndex, boolean authoritative)
 	{
-		List<UpdateFile> result = new ArrayList<>();
-		int totalFiles = FeedManager.getFiles().size();
-		int counter = 0;
+		List<UpdateFile> candidates = new ArrayList<>();
 
 		for(UpdateFile file : FeedManager.getFiles())
 		{
@@ -158,23 +221,156 @@ public class UpdaterService
 
 			if(!ensureParentDirectory(f))
 			{
-				return result; // Error already reported
+				return null;
+			}
+
+			candidates.add(file);
+		}
+
+		int totalFiles = candidates.size();
+		AtomicInteger counter = new AtomicInteger(0);
+		List<Future<Boolean>> results = new ArrayList<>(totalFiles);
+
+		ExecutorService hashExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try
+		{
+			for(UpdateFile file : candidates)
+			{
+				results.add(hashExecutor.submit(() -> {
+					boolean valid = isFileValid(file, trustIndex, authoritative);
+					int checked = counter.incrementAndGet();
+
+					if(!valid && isRepair)
+					{
+						progressReporter.addDetail("status.files.repairing",
+								(checked * 100) / totalFiles, file.name);
+					}
+					return valid;
+				}));
 			}
 
-			String actualHash = Util.calculateHash("SHA-256", f);
-			if(!file.sha256.equalsIgnoreCase(actualHash))
+			List<UpdateFile> result = new ArrayList<>();
+			for(int i = 0; i < totalFiles; i++)
 			{
-				if(isRepair)
+				if(!results.get(i).get())
 				{
-					progressReporter.addDetail("status.files.repairing",
-							(counter * 100) / totalFiles, file.name);
+					result.add(candidates.get(i));
 				}
-				result.add(file);
 			}
-			counter++;
+
+			verificationIndex.save();
+			return result;
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			progressReporter.showError("Verification interrupted", "Error", null);
+			parent.setUpdating(false);
+			return null;
+		}
+		catch(ExecutionException e)
+		{
+			e.printStackTrace();
+			progressReporter.showError("Verification failed: " + e.getCause().getMessage(), "Error", null);
+			parent.setUpdating(false);
+			return null;
+		}
+		finally
+		{
+			hashExecutor.shutdownNow();
+		}
+	}
+
+	private boolean isFileValid(UpdateFile file, boolean trustIndex, boolean authoritative)
+	{
+		File f = LauncherUtils.getFile(file.name);
+		if(!f.isFile())
+		{
+			verificationIndex.remove(file.name);
+			return false;
+		}
+
+		if(trustIndex && verificationIndex.isTrusted(file, f))
+		{
+			return true;
 		}
 
-		return result;
+		if(file.isCopyValid(f, authoritative))
+		{
+			verificationIndex.record(file, f);
+			return true;
+		}
+
+		verificationIndex.remove(file.name);
+		return false;
+	}
+
+	/**
+	 * Lists files in the install which are not part of the feed. They are reported, never deleted,
+	 * as the install also holds user content such as ROMs and mods.
+	 */
+	private void reportStrayFiles()
+	{
+		Path installPath = Path.of(LauncherUtils.getPokemmoDir());
+		Set<String> known = new HashSet<>();
+		for(UpdateFile file : FeedManager.getFiles())
+		{
+			known.add(file.name);
+		}
+
+		Set<Path> userContentDirs = new HashSet<>();
+		for(String dir : USER_CONTENT_DIRS)
+		{
+			userContentDirs.add(installPath.resolve(dir));
+		}
+
+		List<String> stray = new ArrayList<>();
+		try
+		{
+			// User content and launcher bookkeeping are skipped whole, screenshots and caches can be huge
+			Files.walkFileTree(installPath, new SimpleFileVisitor<>()
+			{
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+				{
+					if(!dir.equals(installPath)
+							&& (dir.getFileName().toString().startsWith(".") || userContentDirs.contains(dir)))
+					{
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+				{
+					String name = installPath.relativize(file).toString();
+					// Hidden files at the top are launcher bookkeeping such as the update journal
+					if(!name.startsWith(".") && !known.contains(name) && Files.isRegularFile(file))
+					{
+						stray.add(name);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e)
+				{
+					System.err.println("Error scanning for stray files: " + e.getMessage());
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		catch(IOException e)
+		{
+			System.err.println("Error scanning for stray files: " + e.getMessage());
+		}
+
+		Collections.sort(stray);
+		for(String name : stray)
+		{
+			progressReporter.showInfo("status.files.stray", name);
+		}
 	}
 
 	private boolean ensureParentDirectory(File file)
@@ -190,16 +386,56 @@ public class UpdaterService
 		return true;
 	}
 
+	/**
+	 * Installs everything but the optional files as one transaction, then lets the game start while the optional
+	 * files download in the background
+	 */
 	private void downloadFiles(List<UpdateFile> files)
+	{
+		List<UpdateFile> required = new ArrayList<>();
+		List<UpdateFile> optional = new ArrayList<>();
+		for(UpdateFile file : files)
+		{
+			(file.getPriority() == DownloadPriority.OPTIONAL ? optional : required).add(file);
+		}
+
+		disabledMirrors.clear();
+
+		if(!required.isEmpty() && !downloadRequiredFiles(required))
+		{
+			return; // Error already reported
+		}
+
+		startOptionalDownloads(optional);
+		finishUpdate();
+	}
+
+	/**
+	 * @return true once the files are installed and verified, false if an error was reported
+	 */
+	private boolean downloadRequiredFiles(List<UpdateFile> files)
 	{
 		progressReporter.setStatus(Config.getString("status.downloading"), 30);
 
 		progress.reset(files);
-		disabledMirrors.clear();
+
+		UpdateTransaction transaction = new UpdateTransaction(Path.of(LauncherUtils.getPokemmoDir()));
+		try
+		{
+			transaction.begin();
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			progressReporter.showError("Failed to prepare update: " + e.getMessage(), "Update Error", null);
+			parent.setUpdating(false);
+			return false;
+		}
 
 		CountDownLatch latch = new CountDownLatch(files.size());
 
-		for(UpdateFile file : files)
+		// The slots are handed out in submission order, so submitting in schedule order is all the scheduling needed
+		for(UpdateFile file : DownloadScheduler.order(files))
 		{
 			if(isShuttingDown)
 			{
@@ -207,20 +443,148 @@ public class UpdaterService
 				continue;
 			}
 
-			downloadExecutor.submit(new DownloadTask(file, latch));
+			DownloadTask task = new DownloadTask(file, transaction, false);
+			downloadExecutor.submit(() -> {
+				try
+				{
+					transferSlots.acquire();
+					try
+					{
+						task.run();
+					}
+					finally
+					{
+						transferSlots.release();
+					}
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				finally
+				{
+					latch.countDown();
+				}
+			});
 		}
 
 		try
 		{
 			latch.await();
 			progress.markComplete();
-			finishUpdate();
+
+			if(commitTransaction(transaction))
+			{
+				for(UpdateFile file : files)
+				{
+					verificationIndex.record(file, LauncherUtils.getFile(file.name));
+				}
+				verificationIndex.save();
+				return true;
+			}
+			return false;
 		}
 		catch(InterruptedException e)
 		{
 			Thread.currentThread().interrupt();
+			transaction.abort();
 			progressReporter.showError("Download interrupted", "Error", null);
 			parent.setUpdating(false);
+			return false;
+		}
+	}
+
+	/**
+	 * For an install which is ready to start. The optional files are checked on the optional thread, so the game
+	 * may start meanwhile, and whichever are missing or damaged download behind it.
+	 */
+	public void startOptionalCheck()
+	{
+		optionalDownloads = CompletableFuture.runAsync(() -> {
+			List<UpdateFile> files = LauncherUtils.getInvalidOptionalFiles();
+			if(files.isEmpty() || optionalCancelled)
+			{
+				return;
+			}
+
+			progressReporter.addDetail("status.files.optional_background", -1, files.size());
+			downloadOptionalFiles(files);
+		}, optionalExecutor);
+	}
+
+	private void startOptionalDownloads(List<UpdateFile> files)
+	{
+		if(files.isEmpty())
+		{
+			return;
+		}
+
+		progressReporter.addDetail("status.files.optional_background", -1, files.size());
+
+		// Queued behind any earlier batch on the single thread, so the latest future covers them all
+		optionalDownloads = CompletableFuture.runAsync(() -> downloadOptionalFiles(files), optionalExecutor);
+	}
+
+	/**
+	 * Downloads one file at a time so a running game keeps most of the bandwidth. Whatever was verified is
+	 * staged, even if the batch is cut short, and replaces the live files on the next start.
+	 */
+	private void downloadOptionalFiles(List<UpdateFile> files)
+	{
+		UpdateTransaction transaction = UpdateTransaction.deferred(Path.of(LauncherUtils.getPokemmoDir()));
+
+		try
+		{
+			transaction.begin();
+
+			for(UpdateFile file : DownloadScheduler.order(files))
+			{
+				new DownloadTask(file, transaction, true).run();
+			}
+
+			transaction.prepare();
+			System.out.println("Optional content staged, it is installed on the next start"
+					+ (transaction.hasFailed() || optionalCancelled ? " (incomplete)" : ""));
+		}
+		catch(IOException e)
+		{
+			System.err.println("Failed to stage optional content: " + e.getMessage());
+			transaction.abort();
+		}
+	}
+
+	/**
+	 * Lets the optional downloads outlive {@link #shutdown()}, for when the launcher closes to start the game
+	 *
+	 * @return completes once the optional files are staged for the next start
+	 */
+	public CompletableFuture<Void> detachOptionalDownloads()
+	{
+		optionalDetached = true;
+		return optionalDownloads;
+	}
+
+	private boolean commitTransaction(UpdateTransaction transaction)
+	{
+		if(isShuttingDown || transaction.hasFailed())
+		{
+			// Keep the previous install intact rather than mixing revisions; failures were already reported
+			transaction.abort();
+			parent.setUpdating(false);
+			return false;
+		}
+
+		try
+		{
+			transaction.commit();
+			return true;
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			progressReporter.showError("Failed to install update: " + e.getMessage(), "Update Error", null);
+			parent.setUpdating(false);
+			return false;
 		}
 	}
 
@@ -246,8 +610,7 @@ public class UpdaterService
 	{
 		if(!isShuttingDown)
 		{
-			String speed = progress.calculateSpeed();
-			progressReporter.setDownloadSpeed(speed);
+			progress.publishSpeed();
 			progress.updateOverallProgress();
 		}
 	}
@@ -323,7 +686,19 @@ public class UpdaterService
 	public void shutdown()
 	{
 		isShuttingDown = true;
-		tempFiles.cleanup();
+
+		if(optionalDetached)
+		{
+			// Every other download finished before the game could start, only the optional thread still writes
+			optionalExecutor.shutdown();
+		}
+		else
+		{
+			optionalCancelled = true;
+			tempFiles.cleanup();
+			shutdownExecutor(optionalExecutor, "Optional Download Executor", 5);
+		}
+
 		shutdownExecutor(speedCalculator, "Speed Calculator", 2);
 		shutdownExecutor(downloadExecutor, "Download Executor", 5);
 	}
@@ -352,70 +727,100 @@ public class UpdaterService
 	private class DownloadTask implements Runnable
 	{
 		private final UpdateFile file;
-		private final CountDownLatch latch;
+		private final UpdateTransaction transaction;
+		private final boolean optional;
 
-		DownloadTask(UpdateFile file, CountDownLatch latch)
+		DownloadTask(UpdateFile file, UpdateTransaction transaction, boolean optional)
 		{
 			this.file = file;
-			this.latch = latch;
+			this.transaction = transaction;
+			this.optional = optional;
+		}
+
+		private boolean isCancelled()
+		{
+			return optional ? optionalCancelled : isShuttingDown;
 		}
 
 		@Override
 		public void run()
 		{
-			try
-			{
-				if(isShuttingDown) return;
+			if(isCancelled()) return;
 
-				progressReporter.addDetail("status.files.downloading", -1, file.name);
+			progressReporter.addDetail("status.files.downloading", -1, file.name);
 
-				if(downloadFile())
-				{
-					progress.markFileComplete(file);
-				}
-				else
-				{
-					progressReporter.showError(
-							Config.getString("error.download_error", file.name),
-							"Download Failed", null);
-				}
+			if(downloadFile())
+			{
+				return;
 			}
-			finally
+
+			transaction.markFailed();
+			if(optional)
 			{
-				latch.countDown();
+				// The game runs without it, the next update retries
+				System.err.println("Failed to download optional file " + file.name);
+			}
+			else
+			{
+				progressReporter.showError(
+						Config.getString("error.download_error", file.name),
+						"Download Failed", null);
 			}
 		}
 
 		private boolean downloadFile()
 		{
-			Path targetPath = LauncherUtils.getFile(file.name).toPath();
+			Path targetPath = transaction.getStagingPath(file.name);
+
+			if(file.hasChunks() && repairChunks(targetPath))
+			{
+				return true;
+			}
 
-			for(int mirror = 0; mirror < FeedManager.DOWNLOAD_MIRRORS.length; mirror++)
+			Set<Integer> tried = new HashSet<>();
+			int mirror;
+			while(!isCancelled() && (mirror = scheduler.acquire(tried)) >= 0)
 			{
-				if(isShuttingDown || disabledMirrors.contains(mirror)) continue;
+				tried.add(mirror);
 
 				String url = buildDownloadUrl(mirror);
 				Path tempFile = null;
+				AtomicLong attemptBytes = new AtomicLong();
+				boolean staged = false;
 
 				try
 				{
 					tempFile = tempFiles.createTempFile(targetPath);
 
-					if(!Util.downloadUrlToFile(LauncherUtils.httpClient, url, tempFile.toFile()))
+					int attemptMirror = mirror;
+					FileDownloadSubscriber.Result download;
+					try
+					{
+						download = Util.downloadUrlToFileAsync(LauncherUtils.httpClient, url, tempFile,
+								bytes -> countBytes(attemptMirror, attemptBytes, bytes)).get();
+					}
+					catch(ExecutionException | URISyntaxException e)
+					{
+						e.printStackTrace();
+						download = null;
+					}
+
+					if(download == null)
 					{
 						handleMirrorFailure(mirror, "Download failed");
 						continue;
 					}
 
-					String actualHash = Util.calculateHash("SHA-256", tempFile.toFile());
-					if(!file.sha256.equalsIgnoreCase(actualHash))
+					// Hashed with SHA-256 while it was written, so it needn't be read back.
+					// A fast hash never accepts a download.
+					if(!file.sha256.equalsIgnoreCase(download.sha256()))
 					{
 						handleMirrorFailure(mirror, "Checksum mismatch");
 						continue;
 					}
 
-					moveFile(tempFile, targetPath);
-					progress.addDownloadedBytes(tempFile.toFile().length());
+					transaction.stage(file.name, tempFile);
+					staged = true;
 					return true;
 				}
 				catch(IOException e)
@@ -423,34 +828,150 @@ public class UpdaterService
 					reportFatalError(tempFile, targetPath);
 					return false;
 				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					return false;
+				}
 				finally
 				{
+					endAttempt(attemptBytes.get(), staged);
+					scheduler.release(mirror);
 					tempFiles.deleteFile(tempFile);
 				}
 			}
 			return false;
 		}
 
-		private String buildDownloadUrl(int mirrorIndex)
+		/**
+		 * Patches a copy of the installed file by downloading only its corrupt chunks.
+		 *
+		 * @return false if a full download should be used instead
+		 */
+		private boolean repairChunks(Path targetPath)
 		{
-			return FeedManager.DOWNLOAD_MIRRORS[mirrorIndex] + "/" +
-					Config.UPDATE_CHANNEL + "/current/client/" +
-					file.name + "?v=" + file.getCacheBuster();
+			File installed = LauncherUtils.getFile(file.name);
+			if(!installed.isFile())
+			{
+				return false;
+			}
+
+			int[] corruptChunks = file.findCorruptChunks(installed);
+
+			// Nothing to salvage, or so much is broken that one request for the whole file is cheaper
+			if(corruptChunks.length == 0 || corruptChunks.length * 2 > file.getChunkCount())
+			{
+				return false;
+			}
+
+			progressReporter.addDetail("status.files.repairing_chunks", -1, file.name,
+					corruptChunks.length, file.getChunkCount());
+
+			Set<Integer> tried = new HashSet<>();
+			int mirror;
+			while(!isCancelled() && (mirror = scheduler.acquire(tried)) >= 0)
+			{
+				tried.add(mirror);
+
+				String url = buildDownloadUrl(mirror);
+				Path tempFile = null;
+				AtomicLong attemptBytes = new AtomicLong();
+				boolean staged = false;
+
+				try
+				{
+					tempFile = tempFiles.createTempFile(targetPath);
+					Files.copy(installed.toPath(), tempFile, StandardCopyOption.REPLACE_EXISTING);
+
+					boolean repaired = true;
+
+					try(FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.READ,
+							StandardOpenOption.WRITE))
+					{
+						for(int chunk : corruptChunks)
+						{
+							long offset = file.getChunkOffset(chunk);
+							long length = file.getChunkLength(chunk);
+
+							if(!Util.downloadUrlRangeToChannel(LauncherUtils.httpClient, url, offset, length, channel))
+							{
+								repaired = false;
+								break;
+							}
+
+							countBytes(mirror, attemptBytes, length);
+							if(!file.isChunkValid(channel, chunk))
+							{
+								repaired = false;
+								break;
+							}
+						}
+
+						if(repaired)
+						{
+							channel.force(true);
+						}
+					}
+
+					if(!repaired)
+					{
+						// Mirrors without range support are still fine for full downloads
+						System.out.println("Chunk repair of " + file.name + " failed on mirror " + mirror);
+						continue;
+					}
+
+					transaction.stage(file.name, tempFile);
+					staged = true;
+					return true;
+				}
+				catch(IOException e)
+				{
+					System.err.println("Chunk repair of " + file.name + " failed: " + e.getMessage());
+					return false;
+				}
+				finally
+				{
+					endAttempt(attemptBytes.get(), staged);
+					scheduler.release(mirror);
+					tempFiles.deleteFile(tempFile);
+				}
+			}
+			return false;
 		}
 
-		private void moveFile(Path source, Path target) throws IOException
+		/**
+		 * Called as bytes of an attempt arrive, from the file I/O threads for a full download
+		 */
+		private void countBytes(int mirror, AtomicLong attemptBytes, long bytes)
 		{
-			try
+			attemptBytes.addAndGet(bytes);
+			progress.addTransferredBytes(mirror, bytes, !optional);
+		}
+
+		private void endAttempt(long attemptBytes, boolean staged)
+		{
+			if(optional)
 			{
-				Files.move(source, target, StandardCopyOption.REPLACE_EXISTING,
-						StandardCopyOption.ATOMIC_MOVE);
+				return; // Not part of the progress shown, only of the speed
 			}
-			catch(IOException e)
+
+			if(staged)
+			{
+				progress.markFileComplete(file, attemptBytes);
+			}
+			else
 			{
-				Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+				progress.discardAttempt(attemptBytes);
 			}
 		}
 
+		private String buildDownloadUrl(int mirrorIndex)
+		{
+			return FeedManager.DOWNLOAD_MIRRORS[mirrorIndex] + "/" +
+					Config.UPDATE_CHANNEL + "/current/client/" +
+					file.name + "?v=" + file.getCacheBuster();
+		}
+
 		private void handleMirrorFailure(int mirror, String reason)
 		{
 			progressReporter.showInfo("status.files.failed_download", file.name, mirror);
@@ -467,47 +988,90 @@ public class UpdaterService
 	}
 }
 
+/**
+ * Counts bytes as they are written, from every download thread at once. Progress and the time left come from the
+ * bytes still to download, files without a size in the feed counting with a nominal size. The speed is an
+ * exponentially weighted moving average, overall and per mirror.
+ */
 class ProgressTracker
 {
+	// Long enough to smooth over a stalled connection, short enough to follow a change of mirror
+	private static final double SPEED_TIME_CONSTANT_SECONDS = 3.0;
+	// Seconds without a single byte before the speed is shown as zero instead of decaying towards it
+	private static final int IDLE_SECONDS = 3;
+
 	private final IProgressReporter reporter;
-	private final AtomicInteger completedFiles = new AtomicInteger(0);
-	private final AtomicLong totalBytes = new AtomicLong(0);
-	private final AtomicLong downloadedBytes = new AtomicLong(0);
-	private final AtomicLong lastBytes = new AtomicLong(0);
 
-	private volatile int totalFiles = 0;
-	private volatile long lastSpeedCalc = System.currentTimeMillis();
+	// Every byte received, including attempts that failed and optional files
+	private final LongAdder transferredBytes = new LongAdder();
+	private final LongAdder[] mirrorBytes = new LongAdder[FeedManager.DOWNLOAD_MIRRORS.length];
+	// Bytes of the current update received so far, taken back when an attempt fails
+	private final LongAdder progressBytes = new LongAdder();
+
+	private volatile long totalBytes = 0;
 	private volatile boolean isComplete = false;
 
+	// Only touched by the speed thread, sampling allocates nothing
+	private final long[] lastMirrorBytes = new long[mirrorBytes.length];
+	private final double[] mirrorSpeed = new double[mirrorBytes.length];
+	private final long[] mirrorSpeedReport = new long[mirrorBytes.length];
+	private long lastSampleNanos = System.nanoTime();
+	private long lastTransferredBytes = 0;
+	private double speed = 0;
+	private int idleSeconds = 0;
+
 	ProgressTracker(IProgressReporter reporter)
 	{
 		this.reporter = reporter;
+
+		for(int i = 0; i < mirrorBytes.length; i++)
+		{
+			mirrorBytes[i] = new LongAdder();
+		}
 	}
 
 	void reset(List<UpdateFile> files)
 	{
-		completedFiles.set(0);
-		totalBytes.set(0);
-		downloadedBytes.set(0);
-		lastBytes.set(0);
-		totalFiles = files.size();
+		long total = 0;
+		for(UpdateFile file : files)
+		{
+			total += file.getEstimatedSize();
+		}
+
+		progressBytes.reset();
+		totalBytes = total;
 		isComplete = false;
+	}
 
-		for(UpdateFile file : files)
+	/**
+	 * @param countsTowardsProgress false for bytes which aren't part of the update's total, e.g. optional files
+	 */
+	void addTransferredBytes(int mirror, long bytes, boolean countsTowardsProgress)
+	{
+		transferredBytes.add(bytes);
+		mirrorBytes[mirror].add(bytes);
+
+		if(countsTowardsProgress)
 		{
-			long size = file.hasSizeForProgress() ? file.size : 1024 * 1024;
-			totalBytes.addAndGet(size);
+			progressBytes.add(bytes);
 		}
 	}
 
-	void markFileComplete(UpdateFile file)
+	/**
+	 * Takes back the bytes of a failed attempt, the file is still to download in full
+	 */
+	void discardAttempt(long attemptBytes)
 	{
-		completedFiles.incrementAndGet();
+		progressBytes.add(-attemptBytes);
 	}
 
-	void addDownloadedBytes(long bytes)
+	/**
+	 * Settles the file at its size in the total, whatever was received for it: a chunk repair only fetches part
+	 * of the file and the size of files without one in the feed is only an estimate
+	 */
+	void markFileComplete(UpdateFile file, long attemptBytes)
 	{
-		downloadedBytes.addAndGet(bytes);
+		progressBytes.add(file.getEstimatedSize() - attemptBytes);
 	}
 
 	void markComplete()
@@ -517,127 +1081,67 @@ class ProgressTracker
 
 	void updateOverallProgress()
 	{
-		if(isComplete || totalFiles == 0 || totalBytes.get() == 0) return;
+		long total = totalBytes;
+		if(isComplete || total == 0) return;
 
-		double byteProgress = (double) downloadedBytes.get() / totalBytes.get();
-		double fileProgress = (double) completedFiles.get() / totalFiles;
-		double combined = (byteProgress * 0.7) + (fileProgress * 0.3);
+		double remaining = (double) getRemainingBytes() / total;
 
-		int progress = 30 + (int)(combined * 60); // 30-90% range
+		int progress = 30 + (int)((1 - remaining) * 60); // 30-90% range
 		progress = Math.min(progress, 89);
 
 		reporter.setStatus(Config.getString("status.downloading"), progress);
 	}
 
-	String calculateSpeed()
+	/**
+	 * Samples the counters and hands the smoothed speeds and the time left to the reporter.
+	 * Called by the speed thread only.
+	 */
+	void publishSpeed()
 	{
-		long current = downloadedBytes.get();
-		long delta = current - lastBytes.get();
-		long now = System.currentTimeMillis();
-		long timeDiff = now - lastSpeedCalc;
-
-		if(timeDiff > 0)
+		long now = System.nanoTime();
+		double elapsed = (now - lastSampleNanos) / 1e9;
+		if(elapsed <= 0)
 		{
-			double bytesPerSec = (delta * 1000.0) / timeDiff;
-			lastBytes.set(current);
-			lastSpeedCalc = now;
-			return formatSpeed(bytesPerSec);
+			return;
 		}
-		return "0 B/s";
-	}
+		lastSampleNanos = now;
 
-	private String formatSpeed(double bytesPerSec)
-	{
-		if(bytesPerSec < 1024) return String.format("%.0f B/s", bytesPerSec);
-		if(bytesPerSec < 1024 * 1024) return String.format("%.1f KB/s", bytesPerSec / 1024);
-		return String.format("%.1f MB/s", bytesPerSec / (1024 * 1024));
-	}
-}
+		// The weight of the new sample follows the time since the last one, a late tick isn't over-weighted
+		double alpha = 1 - Math.exp(-elapsed / SPEED_TIME_CONSTANT_SECONDS);
 
-class TempFileManager
-{
-	private static final String TEMP_PREFIX = "pokemmo_download_";
-	private static final String TEMP_SUFFIX = ".tmp";
-	private final Set<Path> activeFiles = Collections.synchronizedSet(new HashSet<>());
+		long transferred = transferredBytes.sum();
+		long delta = transferred - lastTransferredBytes;
+		lastTransferredBytes = transferred;
 
-	static void cleanupOrphanedFiles()
-	{
-		try
-		{
-			LauncherUtils.setupDirectories();
-			File dir = new File(LauncherUtils.getPokemmoDir());
-			if(dir.exists())
-			{
-				cleanupTempFiles(dir);
-			}
-		}
-		catch(Exception e)
-		{
-			System.err.println("Failed to cleanup temp files: " + e.getMessage());
-		}
-	}
+		idleSeconds = delta == 0 ? idleSeconds + 1 : 0;
+		boolean idle = idleSeconds >= IDLE_SECONDS;
 
-	private static void cleanupTempFiles(File dir)
-	{
-		File[] temps = dir.listFiles((d, name) ->
-				name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX));
+		speed = idle ? 0 : speed + alpha * (delta / elapsed - speed);
 
-		if(temps != null)
+		for(int i = 0; i < mirrorBytes.length; i++)
 		{
-			for(File temp : temps)
-			{
-				if(temp.delete())
-				{
-					System.out.println("Cleaned up temp file: " + temp.getName());
-				}
-			}
-		}
+			long bytes = mirrorBytes[i].sum();
+			double mirrorRate = (bytes - lastMirrorBytes[i]) / elapsed;
+			lastMirrorBytes[i] = bytes;
 
-		File[] subdirs = dir.listFiles(File::isDirectory);
-		if(subdirs != null)
-		{
-			for(File subdir : subdirs)
-			{
-				cleanupTempFiles(subdir);
-			}
+			mirrorSpeed[i] = idle ? 0 : mirrorSpeed[i] + alpha * (mirrorRate - mirrorSpeed[i]);
+			mirrorSpeedReport[i] = (long) mirrorSpeed[i];
 		}
-	}
-
-	Path createTempFile(Path target) throws IOException
-	{
-		Files.createDirectories(target.getParent());
-
-		String name = TEMP_PREFIX +
-				target.getFileName().toString().replace("/", "_") + "_" +
-				Integer.toHexString(target.hashCode() & 0x7FFFFFFF) + "_" +
-				System.currentTimeMillis() + TEMP_SUFFIX;
-
-		Path temp = target.getParent().resolve(name);
-		activeFiles.add(temp);
-		return temp;
-	}
 
-	void deleteFile(Path file)
-	{
-		if(file != null)
+		long secondsLeft = -1;
+		if(!isComplete && totalBytes > 0 && speed >= 1)
 		{
-			try
-			{
-				Files.deleteIfExists(file);
-				activeFiles.remove(file);
-			}
-			catch(IOException ignored)
-			{
-			}
+			secondsLeft = (long) Math.ceil(getRemainingBytes() / speed);
 		}
+
+		reporter.setDownloadSpeed((long) speed, secondsLeft, mirrorSpeedReport);
 	}
 
-	void cleanup()
+	/**
+	 * Bytes of the files still queued plus what the files in flight are still missing
+	 */
+	private long getRemainingBytes()
 	{
-		for(Path file : activeFiles)
-		{
-			deleteFile(file);
-		}
-		activeFiles.clear();
+		return Math.max(0, totalBytes - progressBytes.sum());
 	}
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package com.pokeemu.unix.updater;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Remembers the size and modification time each file had when its hash was last verified,
+ * so a quick repair only needs to hash files which have visibly changed since.
+ */
+public class VerificationIndex
+{
+	private static final String INDEX_FILE = ".verify-index";
+	private static final String INDEX_HEADER = "pokemmo-verify-index v1";
+
+	private record Entry(String sha256, long size, long lastModified) {}
+
+	private static final AtomicReference<VerificationIndex> preloaded = new AtomicReference<>();
+
+	private final Path indexFile;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private VerificationIndex(Path indexFile)
+	{
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Reads the index ahead of time, the next {@link #load} for the same directory takes it instead of reading again
+	 */
+	public static void preload(String installDir)
+	{
+		if(installDir != null)
+		{
+			preloaded.set(read(Path.of(installDir)));
+		}
+	}
+
+	static VerificationIndex load(Path installDir)
+	{
+		VerificationIndex index = preloaded.getAndSet(null);
+		if(index != null && index.indexFile.equals(installDir.resolve(INDEX_FILE)))
+		{
+			return index;
+		}
+
+		return read(installDir);
+	}
+
+	private static VerificationIndex read(Path installDir)
+	{
+		VerificationIndex index = new VerificationIndex(installDir.resolve(INDEX_FILE));
+
+		try(BufferedReader reader = Files.newBufferedReader(index.indexFile, StandardCharsets.UTF_8))
+		{
+			if(!INDEX_HEADER.equals(reader.readLine()))
+			{
+				return index;
+			}
+
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				// sha256 size mtime name - the name goes last as it may contain spaces
+				String[] parts = line.split(" ", 4);
+				if(parts.length == 4)
+				{
+					try
+					{
+						index.entries.put(parts[3], new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+					}
+					catch(NumberFormatException ignored)
+					{
+					}
+				}
+			}
+		}
+		catch(NoSuchFileException ignored)
+		{
+		}
+		catch(IOException e)
+		{
+			System.err.println("Failed to read verification index: " + e.getMessage());
+			index.entries.clear();
+		}
+
+		return index;
+	}
+
+	/**
+	 * @return true if the file was verified against the same hash before and looks untouched since
+	 */
+	boolean isTrusted(UpdateFile file, File f)
+	{
+		Entry entry = entries.get(file.name);
+		return entry != null &&
+				entry.sha256().equalsIgnoreCase(file.sha256) &&
+				entry.size() == f.length() &&
+				entry.lastModified() == f.lastModified();
+	}
+
+	void record(UpdateFile file, File f)
+	{
+		long lastModified = f.lastModified();
+		if(lastModified == 0L)
+		{
+			entries.remove(file.name);
+			return;
+		}
+
+		entries.put(file.name, new Entry(file.sha256, f.length(), lastModified));
+	}
+
+	void remove(String name)
+	{
+		entries.remove(name);
+	}
+
+	void save()
+	{
+		Path tempFile = indexFile.resolveSibling(INDEX_FILE + ".tmp");
+
+		try
+		{
+			try(BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8))
+			{
+				writer.write(INDEX_HEADER);
+				writer.newLine();
+
+				for(Map.Entry<String, Entry> e : entries.entrySet())
+				{
+					Entry entry = e.getValue();
+					writer.write(entry.sha256() + " " + entry.size() + " " + entry.lastModified() + " " + e.getKey());
+					writer.newLine();
+				}
+			}
+
+			Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(IOException e)
+		{
+			System.err.println("Failed to save verification index: " + e.getMessage());
+		}
+	}
+}
\ No newline at end of file
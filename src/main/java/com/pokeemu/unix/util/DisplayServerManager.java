@@ -4,15 +4,17 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Properties;
 
 import com.pokeemu.unix.LauncherUtils;
 
-import org.lwjgl.glfw.GLFW;
-
 /**
  * Manages display server detection and configuration for the game client.
  * Ensures the game launches with the correct compositor settings.
+ * Detection only looks at the environment and the display sockets, so the headless launch path never loads GLFW.
  */
 public class DisplayServerManager
 {
@@ -64,13 +66,72 @@ public class DisplayServerManager
 	public static boolean isWaylandAvailable()
 	{
 		String waylandDisplay = System.getenv("WAYLAND_DISPLAY");
-		return GLFW.glfwPlatformSupported(GLFW.GLFW_PLATFORM_WAYLAND) && waylandDisplay != null && !waylandDisplay.isEmpty();
+		if(waylandDisplay == null || waylandDisplay.isEmpty())
+		{
+			return false;
+		}
+
+		// Relative names are resolved against XDG_RUNTIME_DIR, the same way libwayland-client does
+		Path socket = Path.of(waylandDisplay);
+		if(!socket.isAbsolute())
+		{
+			String runtimeDir = System.getenv("XDG_RUNTIME_DIR");
+			if(runtimeDir == null || runtimeDir.isEmpty())
+			{
+				return true;
+			}
+			socket = Path.of(runtimeDir, waylandDisplay);
+		}
+
+		return isSocketPresent(socket);
 	}
 
 	public static boolean isX11Available()
 	{
 		String x11Display = System.getenv("DISPLAY");
-		return GLFW.glfwPlatformSupported(GLFW.GLFW_PLATFORM_X11) && x11Display != null && !x11Display.isEmpty();
+		if(x11Display == null || x11Display.isEmpty())
+		{
+			return false;
+		}
+
+		// Only local displays (":0", "unix:0.0") have a socket we can check, TCP displays are trusted as given
+		int colon = x11Display.lastIndexOf(':');
+		String host = colon > 0 ? x11Display.substring(0, colon) : "";
+		if(colon < 0 || !(host.isEmpty() || host.equals("unix")))
+		{
+			return true;
+		}
+
+		String displayNumber = x11Display.substring(colon + 1);
+		int dot = displayNumber.indexOf('.');
+		if(dot >= 0)
+		{
+			displayNumber = displayNumber.substring(0, dot);
+		}
+
+		return isSocketPresent(Path.of("/tmp/.X11-unix", "X" + displayNumber));
+	}
+
+	/**
+	 * Checks for a unix socket on the filesystem, or bound in the abstract namespace as X servers also do.
+	 */
+	private static boolean isSocketPresent(Path socket)
+	{
+		if(Files.exists(socket))
+		{
+			return true;
+		}
+
+		try(var lines = Files.lines(Path.of("/proc/net/unix"), StandardCharsets.UTF_8))
+		{
+			String abstractName = "@" + socket;
+			return lines.anyMatch(line -> line.endsWith(" " + abstractName));
+		}
+		catch(IOException | RuntimeException e)
+		{
+			// Without procfs we can't tell, rather trust the environment than hide a working display
+			return true;
+		}
 	}
 
 	/**
@@ -0,0 +1,464 @@
+package com.pokeemu.unix.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.function.LongConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Streams a response body into a file without holding a thread while data is in flight.
+ * The client's buffers are inflated when the response is gzip or deflate encoded, hashed and written through an
+ * {@link AsynchronousFileChannel}. The next buffers are only requested once the previous ones are on disk,
+ * so a slow disk throttles the connection instead of queueing memory.
+ */
+public class FileDownloadSubscriber implements HttpResponse.BodySubscriber<FileDownloadSubscriber.Result>
+{
+	/**
+	 * @param sha256 hex digest of the decoded content
+	 * @param size   decoded bytes written to the file
+	 */
+	public record Result(String sha256, long size) {}
+
+	private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+
+	// Every download's file writes share these few threads, however many transfers are running
+	private static final ExecutorService FILE_IO_EXECUTOR = Executors.newFixedThreadPool(
+			Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+				Thread t = new Thread(r, "download-io");
+				t.setDaemon(true);
+				return t;
+			});
+
+	private final CompletableFuture<Result> result = new CompletableFuture<>();
+	private final Path file;
+	private final MessageDigest digest;
+	private final LongConsumer progress;
+
+	// Only set for an encoded response, identity responses are written straight from the client's buffers
+	private final Inflater inflater;
+	private final ByteBuffer inflated;
+	private final GzipHeader gzipHeader;
+
+	private Flow.Subscription subscription;
+	private AsynchronousFileChannel channel;
+
+	private List<ByteBuffer> pending = List.of();
+	private int pendingIndex;
+	private long position;
+	private boolean writing;
+	private boolean upstreamDone;
+
+	private FileDownloadSubscriber(Path file, String contentEncoding, LongConsumer progress)
+	{
+		this.file = file;
+		this.progress = progress;
+
+		try
+		{
+			this.digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+
+		switch(contentEncoding.toLowerCase(Locale.ROOT))
+		{
+			case "gzip" ->
+			{
+				inflater = new Inflater(true);
+				gzipHeader = new GzipHeader();
+			}
+			case "deflate" ->
+			{
+				inflater = new Inflater(true);
+				gzipHeader = null;
+			}
+			default ->
+			{
+				inflater = null;
+				gzipHeader = null;
+			}
+		}
+
+		inflated = inflater != null ? ByteBuffer.allocateDirect(INFLATE_BUFFER_SIZE) : null;
+	}
+
+	/**
+	 * Saves a 200 response to the given file. Any other status completes with null and discards the body.
+	 *
+	 * @param progress told the number of decoded bytes after every write reaches the file
+	 */
+	public static HttpResponse.BodyHandler<Result> toFile(Path file, LongConsumer progress)
+	{
+		return responseInfo -> {
+			if(responseInfo.statusCode() != 200)
+			{
+				return HttpResponse.BodySubscribers.replacing(null);
+			}
+
+			String encoding = responseInfo.headers().firstValue("Content-Encoding").orElse("");
+			return new FileDownloadSubscriber(file, encoding, progress);
+		};
+	}
+
+	@Override
+	public CompletionStage<Result> getBody()
+	{
+		return result;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription)
+	{
+		synchronized(this)
+		{
+			this.subscription = subscription;
+
+			try
+			{
+				channel = AsynchronousFileChannel.open(file, Set.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING), FILE_IO_EXECUTOR);
+			}
+			catch(IOException e)
+			{
+				fail(e);
+				return;
+			}
+		}
+
+		subscription.request(1);
+	}
+
+	@Override
+	public void onNext(List<ByteBuffer> items)
+	{
+		synchronized(this)
+		{
+			pending = items;
+			pendingIndex = 0;
+		}
+
+		pump();
+	}
+
+	@Override
+	public void onError(Throwable throwable)
+	{
+		fail(throwable);
+	}
+
+	@Override
+	public synchronized void onComplete()
+	{
+		upstreamDone = true;
+
+		// With a write in flight, the pump finishes once it has drained what's left
+		if(!writing)
+		{
+			finish();
+		}
+	}
+
+	/**
+	 * Writes the next decoded buffer, or asks the client for more once everything received is on disk.
+	 * Runs on the client's thread for new data and on the channel's thread after a write.
+	 */
+	private void pump()
+	{
+		synchronized(this)
+		{
+			if(result.isDone())
+			{
+				return;
+			}
+
+			ByteBuffer out;
+			try
+			{
+				out = nextOutput();
+			}
+			catch(DataFormatException | IOException e)
+			{
+				fail(e);
+				return;
+			}
+
+			if(out != null)
+			{
+				writing = true;
+				digest.update(out.duplicate());
+				write(out);
+				return;
+			}
+
+			writing = false;
+			if(upstreamDone)
+			{
+				finish();
+				return;
+			}
+		}
+
+		// Outside the lock, the client may deliver the next buffers from within request()
+		subscription.request(1);
+	}
+
+	private void write(ByteBuffer buffer)
+	{
+		channel.write(buffer, position, buffer, new CompletionHandler<>()
+		{
+			@Override
+			public void completed(Integer written, ByteBuffer attachment)
+			{
+				synchronized(FileDownloadSubscriber.this)
+				{
+					position += written;
+				}
+				progress.accept(written);
+
+				if(attachment.hasRemaining())
+				{
+					channel.write(attachment, position, attachment, this);
+				}
+				else
+				{
+					pump();
+				}
+			}
+
+			@Override
+			public void failed(Throwable exc, ByteBuffer attachment)
+			{
+				fail(exc);
+			}
+		});
+	}
+
+	/**
+	 * @return the next decoded bytes to write, null when everything received so far has been written
+	 */
+	private ByteBuffer nextOutput() throws DataFormatException, IOException
+	{
+		if(inflater == null)
+		{
+			return nextInput();
+		}
+
+		while(!inflater.finished())
+		{
+			if(inflater.needsInput())
+			{
+				ByteBuffer input = nextInput();
+				if(input == null)
+				{
+					return null;
+				}
+
+				if(gzipHeader != null && !gzipHeader.isComplete())
+				{
+					gzipHeader.consume(input);
+					if(!input.hasRemaining())
+					{
+						continue;
+					}
+				}
+
+				inflater.setInput(input);
+			}
+
+			inflated.clear();
+			if(inflater.inflate(inflated) > 0)
+			{
+				return inflated.flip();
+			}
+
+			if(inflater.needsDictionary())
+			{
+				throw new IOException("Deflate streams with a preset dictionary are not supported");
+			}
+		}
+
+		// Past the end of the deflate stream only the gzip trailer is left, the sha256 check covers integrity
+		pendingIndex = pending.size();
+		return null;
+	}
+
+	private ByteBuffer nextInput()
+	{
+		while(pendingIndex < pending.size())
+		{
+			ByteBuffer buffer = pending.get(pendingIndex++);
+			if(buffer.hasRemaining())
+			{
+				return buffer;
+			}
+		}
+
+		return null;
+	}
+
+	private void finish()
+	{
+		if(result.isDone())
+		{
+			return;
+		}
+
+		if(inflater != null && !inflater.finished())
+		{
+			fail(new EOFException("Compressed response ended early"));
+			return;
+		}
+
+		try
+		{
+			// The file may be staged for an update whose journal is synced right after, so its data must be too
+			channel.force(true);
+			channel.close();
+		}
+		catch(IOException e)
+		{
+			fail(e);
+			return;
+		}
+
+		release();
+		result.complete(new Result(HexFormat.of().formatHex(digest.digest()), position));
+	}
+
+	private synchronized void fail(Throwable throwable)
+	{
+		if(!result.completeExceptionally(throwable))
+		{
+			return;
+		}
+
+		if(subscription != null)
+		{
+			subscription.cancel();
+		}
+
+		if(channel != null)
+		{
+			try
+			{
+				channel.close();
+			}
+			catch(IOException ignored)
+			{
+			}
+		}
+
+		release();
+	}
+
+	private synchronized void release()
+	{
+		if(inflater != null)
+		{
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Skips the gzip member header (RFC 1952) incrementally, it may be split across the client's buffers
+	 */
+	private static final class GzipHeader
+	{
+		private static final int FHCRC = 2;
+		private static final int FEXTRA = 4;
+		private static final int FNAME = 8;
+		private static final int FCOMMENT = 16;
+
+		private static final int FIXED_LENGTH = 10;
+
+		private int fixedRead;
+		private int flags;
+		private int extraLengthRead;
+		private int extraRemaining = -1;
+		private int crcRemaining = 2;
+
+		boolean isComplete()
+		{
+			return fixedRead == FIXED_LENGTH && flags == 0;
+		}
+
+		void consume(ByteBuffer input) throws IOException
+		{
+			while(input.hasRemaining() && !isComplete())
+			{
+				int b = input.get() & 0xFF;
+
+				if(fixedRead < FIXED_LENGTH)
+				{
+					if((fixedRead == 0 && b != 0x1F) || (fixedRead == 1 && b != 0x8B) || (fixedRead == 2 && b != 8))
+					{
+						throw new IOException("Not a gzip response");
+					}
+
+					if(fixedRead == 3)
+					{
+						flags = b & (FHCRC | FEXTRA | FNAME | FCOMMENT);
+					}
+
+					fixedRead++;
+				}
+				else if((flags & FEXTRA) != 0)
+				{
+					// Two byte little-endian length, then that many bytes
+					if(extraLengthRead < 2)
+					{
+						extraRemaining = extraLengthRead == 0 ? b : extraRemaining | (b << 8);
+						extraLengthRead++;
+					}
+					else
+					{
+						extraRemaining--;
+					}
+
+					if(extraLengthRead == 2 && extraRemaining == 0)
+					{
+						flags &= ~FEXTRA;
+					}
+				}
+				else if((flags & FNAME) != 0)
+				{
+					if(b == 0)
+					{
+						flags &= ~FNAME;
+					}
+				}
+				else if((flags & FCOMMENT) != 0)
+				{
+					if(b == 0)
+					{
+						flags &= ~FCOMMENT;
+					}
+				}
+				else if(--crcRemaining == 0)
+				{
+					flags &= ~FHCRC;
+				}
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,369 @@
+package com.pokeemu.unix.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.pokeemu.unix.config.Config;
+
+/**
+ * Picks heap bounds and a garbage collector for the game client from the host's memory and cores,
+ * optionally refined by the GC logs of earlier sessions. Only used when adaptive tuning is enabled.
+ */
+public final class GameJvmTuner
+{
+	public enum Collector
+	{
+		ZGC("ZGC"),
+		G1("G1");
+
+		private final String display_name;
+
+		Collector(String display_name)
+		{
+			this.display_name = display_name;
+		}
+
+		public String getDisplayName()
+		{
+			return display_name;
+		}
+	}
+
+	/**
+	 * @param liveHeapMb largest heap occupancy seen after a collection in earlier sessions, -1 if unknown
+	 */
+	public record Recommendation(int maxHeapMb, Collector collector, int gcThreads, boolean transparentHugePages,
+								 long availableMemoryMb, int liveHeapMb)
+	{
+		public List<String> toJvmArgs()
+		{
+			List<String> args = new ArrayList<>();
+
+			if(collector == Collector.ZGC)
+			{
+				args.add("-XX:+UseZGC");
+				args.add("-XX:+ZGenerational");
+				args.add("-XX:ConcGCThreads=" + gcThreads);
+			}
+			else
+			{
+				args.add("-XX:+UseG1GC");
+				args.add("-XX:ParallelGCThreads=" + gcThreads);
+				args.add("-XX:ConcGCThreads=" + Math.max(1, gcThreads / 2));
+			}
+
+			if(transparentHugePages)
+			{
+				args.add("-XX:+UseTransparentHugePages");
+			}
+
+			args.add("-Xms" + Math.min(INITIAL_HEAP_MB, maxHeapMb) + "M");
+			args.add("-Xmx" + maxHeapMb + "M");
+
+			return args;
+		}
+	}
+
+	private static final int INITIAL_HEAP_MB = 192;
+	private static final int HEAP_STEP_MB = 128;
+
+	// Below this the machine is better served by G1's smaller footprint than by ZGC's concurrent headroom
+	private static final long ZGC_MIN_MEMORY_MB = 4096;
+	private static final int ZGC_MIN_CORES = 4;
+	private static final long HUGE_PAGES_MIN_MEMORY_MB = 8192;
+
+	private static final String GC_LOG_DIR = ".gc";
+	private static final String GC_LOG_FILE = "gc.log";
+	private static final int GC_LOG_FILE_COUNT = 3;
+
+	// "150M->60M(256M)" from G1 and "120M(23%)->46M(9%)" from ZGC, group 2 is the occupancy after the collection
+	private static final Pattern GC_OCCUPANCY = Pattern.compile("(\\d+)M(?:\\(\\d+%\\))?->(\\d+)M");
+
+	private static volatile Recommendation cachedRecommendation;
+	// Guarded by the class, bumped on invalidation so a computation started before it can't cache a stale result
+	private static CompletableFuture<Recommendation> pendingRecommendation;
+	private static int recommendationGeneration;
+
+	private GameJvmTuner()
+	{
+	}
+
+	public static Recommendation getRecommendation(String pokemmoDir)
+	{
+		Recommendation recommendation = cachedRecommendation;
+		if(recommendation == null)
+		{
+			recommendation = recommend(pokemmoDir);
+			cachedRecommendation = recommendation;
+		}
+		return recommendation;
+	}
+
+	/**
+	 * For the render thread, which can't wait on the /proc, cgroup and GC log reads. The first call starts
+	 * computing the recommendation in the background.
+	 *
+	 * @param onReady run once a recommendation computed in the background is available
+	 * @return the recommendation, null while it is being computed
+	 */
+	public static synchronized Recommendation pollRecommendation(String pokemmoDir, Runnable onReady)
+	{
+		Recommendation recommendation = cachedRecommendation;
+		if(recommendation != null || pendingRecommendation != null)
+		{
+			return recommendation;
+		}
+
+		int generation = recommendationGeneration;
+		pendingRecommendation = CompletableFuture.supplyAsync(() -> recommend(pokemmoDir));
+		pendingRecommendation.whenComplete((result, throwable) -> {
+			synchronized(GameJvmTuner.class)
+			{
+				if(generation != recommendationGeneration)
+				{
+					return;
+				}
+
+				pendingRecommendation = null;
+				if(throwable != null)
+				{
+					System.err.println("Failed to compute the game JVM recommendation: " + throwable);
+					return;
+				}
+				cachedRecommendation = result;
+			}
+			onReady.run();
+		});
+		return null;
+	}
+
+	/**
+	 * Drops the cached recommendation after a setting it depends on changed
+	 */
+	public static synchronized void invalidateRecommendation()
+	{
+		cachedRecommendation = null;
+		pendingRecommendation = null;
+		recommendationGeneration++;
+	}
+
+	/**
+	 * @return the -Xlog option recording this session for the next recommendation
+	 */
+	public static String getGcLogArg(String pokemmoDir)
+	{
+		Path logFile = Path.of(pokemmoDir, GC_LOG_DIR, GC_LOG_FILE);
+
+		try
+		{
+			Files.createDirectories(logFile.getParent());
+		}
+		catch(IOException e)
+		{
+			System.err.println("Failed to create GC log directory: " + e.getMessage());
+		}
+
+		return "-Xlog:gc:file=" + logFile + ":uptime:filecount=" + GC_LOG_FILE_COUNT + ",filesize=1m";
+	}
+
+	private static Recommendation recommend(String pokemmoDir)
+	{
+		long availableMemoryMb = readAvailableMemoryMb();
+		int cores = Runtime.getRuntime().availableProcessors();
+		int liveHeapMb = Config.JVM_GC_HISTORY_ENABLED && pokemmoDir != null ? readLiveHeapMb(pokemmoDir) : -1;
+
+		Collector collector = availableMemoryMb >= ZGC_MIN_MEMORY_MB && cores >= ZGC_MIN_CORES
+				? Collector.ZGC
+				: Collector.G1;
+
+		int maxHeapMb;
+		if(availableMemoryMb <= 0)
+		{
+			maxHeapMb = Config.HARD_MAX_MEMORY_MB;
+		}
+		else
+		{
+			// Leave most of the machine to the OS, the client's native code and the desktop
+			maxHeapMb = (int) Math.min(availableMemoryMb / 8, Integer.MAX_VALUE);
+		}
+
+		if(liveHeapMb > 0)
+		{
+			// ZGC collects concurrently and needs more headroom above the live set than G1 to avoid allocation stalls
+			int headroom = collector == Collector.ZGC ? 3 : 2;
+			maxHeapMb = Math.max(maxHeapMb, liveHeapMb * headroom);
+		}
+
+		if(availableMemoryMb > 0)
+		{
+			maxHeapMb = (int) Math.min(maxHeapMb, availableMemoryMb / 2);
+		}
+
+		maxHeapMb = Math.round((float) maxHeapMb / HEAP_STEP_MB) * HEAP_STEP_MB;
+		maxHeapMb = Math.max(Config.JOPTS_XMX_VAL_MIN, Math.min(Config.JOPTS_XMX_VAL_MAX, maxHeapMb));
+
+		int gcThreads = collector == Collector.ZGC ? Math.max(1, cores / 4) : Math.max(1, Math.min(cores, 4));
+
+		boolean transparentHugePages = availableMemoryMb >= HUGE_PAGES_MIN_MEMORY_MB
+				&& isTransparentHugePagesAvailable();
+
+		Recommendation recommendation = new Recommendation(maxHeapMb, collector, gcThreads, transparentHugePages,
+				availableMemoryMb, liveHeapMb);
+		System.out.println("Game JVM recommendation: " + recommendation);
+
+		return recommendation;
+	}
+
+	/**
+	 * Physical memory, capped by the memory limit of our cgroup (snap and flatpak confinement, containers).
+	 */
+	private static long readAvailableMemoryMb()
+	{
+		long totalMb = -1;
+
+		try
+		{
+			for(String line : Files.readAllLines(Path.of("/proc/meminfo"), StandardCharsets.UTF_8))
+			{
+				if(line.startsWith("MemTotal:"))
+				{
+					totalMb = Long.parseLong(line.replaceAll("\\D", "")) / 1024;
+					break;
+				}
+			}
+		}
+		catch(IOException | NumberFormatException e)
+		{
+			System.err.println("Unable to read /proc/meminfo: " + e.getMessage());
+		}
+
+		long cgroupLimitMb = readCgroupLimitMb();
+		if(cgroupLimitMb > 0 && (totalMb <= 0 || cgroupLimitMb < totalMb))
+		{
+			return cgroupLimitMb;
+		}
+
+		return totalMb;
+	}
+
+	private static long readCgroupLimitMb()
+	{
+		long limit = -1;
+
+		try
+		{
+			for(String line : Files.readAllLines(Path.of("/proc/self/cgroup"), StandardCharsets.UTF_8))
+			{
+				String[] parts = line.split(":", 3);
+				if(parts.length != 3)
+				{
+					continue;
+				}
+
+				if(parts[0].equals("0") && parts[1].isEmpty())
+				{
+					// cgroup v2, limits apply along the whole hierarchy
+					Path dir = Path.of("/sys/fs/cgroup" + parts[2]);
+					while(dir != null && dir.startsWith("/sys/fs/cgroup"))
+					{
+						limit = minLimit(limit, readLimit(dir.resolve("memory.max")));
+						dir = dir.getParent();
+					}
+				}
+				else if(parts[1].contains("memory"))
+				{
+					Path memoryRoot = Path.of("/sys/fs/cgroup/memory");
+					limit = minLimit(limit, readLimit(Path.of(memoryRoot + parts[2], "memory.limit_in_bytes")));
+					limit = minLimit(limit, readLimit(memoryRoot.resolve("memory.limit_in_bytes")));
+				}
+			}
+		}
+		catch(IOException e)
+		{
+			return -1;
+		}
+
+		return limit > 0 ? limit / (1024 * 1024) : -1;
+	}
+
+	private static long readLimit(Path file)
+	{
+		try
+		{
+			String value = Files.readString(file).strip();
+			long bytes = Long.parseLong(value);
+			// cgroup v1 reports an unlimited group as a page-aligned Long.MAX_VALUE
+			return bytes > 0 && bytes < Long.MAX_VALUE / 2 ? bytes : -1;
+		}
+		catch(IOException | NumberFormatException e)
+		{
+			// "max", or no limit file at this level
+			return -1;
+		}
+	}
+
+	private static long minLimit(long current, long candidate)
+	{
+		if(candidate <= 0)
+		{
+			return current;
+		}
+		return current <= 0 ? candidate : Math.min(current, candidate);
+	}
+
+	private static boolean isTransparentHugePagesAvailable()
+	{
+		try
+		{
+			String mode = Files.readString(Path.of("/sys/kernel/mm/transparent_hugepage/enabled"));
+			return mode.contains("[always]") || mode.contains("[madvise]");
+		}
+		catch(IOException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * @return the largest post-collection heap occupancy across the retained GC logs, -1 without history
+	 */
+	private static int readLiveHeapMb(String pokemmoDir)
+	{
+		Path logDir = Path.of(pokemmoDir, GC_LOG_DIR);
+		int liveHeapMb = -1;
+
+		for(int i = -1; i < GC_LOG_FILE_COUNT; i++)
+		{
+			Path logFile = logDir.resolve(i < 0 ? GC_LOG_FILE : GC_LOG_FILE + "." + i);
+			if(!Files.isRegularFile(logFile))
+			{
+				continue;
+			}
+
+			try(var lines = Files.lines(logFile, StandardCharsets.UTF_8))
+			{
+				for(String line : (Iterable<String>) lines::iterator)
+				{
+					Matcher matcher = GC_OCCUPANCY.matcher(line);
+					if(matcher.find())
+					{
+						liveHeapMb = Math.max(liveHeapMb, Integer.parseInt(matcher.group(2)));
+					}
+				}
+			}
+			catch(IOException | RuntimeException e)
+			{
+				System.err.println("Skipping unreadable GC log " + logFile + ": " + e.getMessage());
+			}
+		}
+
+		return liveHeapMb;
+	}
+}
\ No newline at end of file
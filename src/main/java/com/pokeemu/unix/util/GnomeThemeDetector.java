@@ -1,47 +1,307 @@
 package com.pokeemu.unix.util;
 
 import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.pokeemu.unix.config.Config;
+
 /**
  * Limited-scope port of GNOME theme detection sourced from https://github.com/Dansoftowner/jSystemThemeDetector
  * Used for detecting the dark theme on a GNOME/GTK system
+ * <p>
+ * The answer is cached in the config dir: {@link #isDark()} never waits on a subprocess, {@link #refreshIfStale()}
+ * detects again off the render thread and notifies listeners when the theme changed.
  *
  * @author Daniel Gyorffy (DansoftOwner), Kyu
  */
 public class GnomeThemeDetector
 {
-	private static final String[] GET_CMD = new String[]{
-			"gsettings get org.gnome.desktop.interface gtk-theme",
-			"gsettings get org.gnome.desktop.interface color-scheme"
+	private static final String[][] GET_CMD = new String[][]{
+			{"gsettings", "get", "org.gnome.desktop.interface", "gtk-theme"},
+			{"gsettings", "get", "org.gnome.desktop.interface", "color-scheme"}
+	};
+
+	// Desktop-neutral color-scheme preference, also readable from inside Flatpak
+	private static final String[] PORTAL_CMD = new String[]{
+			"gdbus", "call", "--session", "--timeout", "2",
+			"--dest", "org.freedesktop.portal.Desktop",
+			"--object-path", "/org/freedesktop/portal/desktop",
+			"--method", "org.freedesktop.portal.Settings.Read",
+			"org.freedesktop.appearance", "color-scheme"
 	};
 
+	private static final String[] GTK_SETTINGS_FILES = {"gtk-4.0/settings.ini", "gtk-3.0/settings.ini"};
+
 	private static final Pattern darkThemeNamePattern = Pattern.compile(".*dark.*", Pattern.CASE_INSENSITIVE);
+	private static final Pattern portalValuePattern = Pattern.compile("uint32 (\\d+)");
+
+	private static final long PROCESS_TIMEOUT_SECONDS = 2;
+
+	private static final String CACHE_FILE = "pokemmo-installer-theme.properties";
+	private static final long CACHE_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	private static final Object cacheLock = new Object();
+	private static final Object refreshLock = new Object();
+	private static final List<Consumer<Boolean>> listeners = new CopyOnWriteArrayList<>();
+
+	private static volatile boolean cacheLoaded = false;
+	private static volatile Boolean dark;
+	private static volatile long detectedAt;
 
+	/**
+	 * @return the last known answer, from this session or the cache, light if the theme was never detected
+	 */
 	public static boolean isDark()
 	{
-		try
+		loadCache();
+		return Boolean.TRUE.equals(dark);
+	}
+
+	/**
+	 * Called with the new answer, on the detecting thread, whenever a detection changes it
+	 */
+	public static void addListener(Consumer<Boolean> listener)
+	{
+		listeners.add(listener);
+	}
+
+	/**
+	 * Detects the theme again unless the cached answer is younger than the TTL.
+	 * Blocks on the desktop's helper processes, so never call it from the render thread.
+	 */
+	public static boolean refreshIfStale()
+	{
+		synchronized(refreshLock)
 		{
-			Runtime runtime = Runtime.getRuntime();
-			for(String cmd : GET_CMD)
+			loadCache();
+
+			Boolean cached = dark;
+			if(cached != null && System.currentTimeMillis() - detectedAt < CACHE_TTL_MILLIS)
 			{
-				Process process = runtime.exec(cmd);
-				try(BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream())))
+				System.out.println("Theme Detection: " + (cached ? "Dark" : "Light") + " (cached)");
+				return cached;
+			}
+
+			boolean detected = detect();
+			System.out.println("Theme Detection: " + (detected ? "Dark" : "Light"));
+
+			dark = detected;
+			detectedAt = System.currentTimeMillis();
+			saveCache(detected, detectedAt);
+
+			if(!Objects.equals(cached, detected))
+			{
+				for(Consumer<Boolean> listener : listeners)
 				{
-					String readLine = reader.readLine();
-					if(readLine != null && darkThemeNamePattern.matcher(readLine).matches())
+					listener.accept(detected);
+				}
+			}
+
+			return detected;
+		}
+	}
+
+	private static boolean detect()
+	{
+		Boolean portalPreference = readPortalPreference();
+		if(portalPreference != null)
+		{
+			return portalPreference;
+		}
+
+		return isGtkSettingsDark() || isGsettingsDark();
+	}
+
+	/**
+	 * @return the portal's explicit preference, null when there is no portal or it reports no preference
+	 */
+	private static Boolean readPortalPreference()
+	{
+		String reply = readFirstLine(PORTAL_CMD);
+		if(reply == null)
+		{
+			return null;
+		}
+
+		Matcher matcher = portalValuePattern.matcher(reply);
+		if(!matcher.find())
+		{
+			return null;
+		}
+
+		// 0 = no preference, 1 = prefer dark, 2 = prefer light
+		return switch(matcher.group(1))
+		{
+			case "1" -> true;
+			case "2" -> false;
+			default -> null;
+		};
+	}
+
+	/**
+	 * The GTK settings files mirror what the XSETTINGS daemon of most non-GNOME desktops serves, without a fork
+	 */
+	private static boolean isGtkSettingsDark()
+	{
+		String configHome = Objects.requireNonNullElse(System.getenv("XDG_CONFIG_HOME"),
+				System.getProperty("user.home") + "/.config");
+
+		for(String settingsFile : GTK_SETTINGS_FILES)
+		{
+			Path path = Path.of(configHome, settingsFile);
+			if(!Files.isRegularFile(path))
+			{
+				continue;
+			}
+
+			try
+			{
+				for(String line : Files.readAllLines(path, StandardCharsets.UTF_8))
+				{
+					String[] setting = line.split("=", 2);
+					if(setting.length != 2)
+					{
+						continue;
+					}
+
+					String key = setting[0].strip();
+					String value = setting[1].strip();
+					boolean prefersDark = value.equals("1") || value.equalsIgnoreCase("true");
+					if(key.equals("gtk-application-prefer-dark-theme") && prefersDark)
+					{
+						return true;
+					}
+
+					if(key.equals("gtk-theme-name") && darkThemeNamePattern.matcher(value).matches())
 					{
 						return true;
 					}
 				}
 			}
+			catch(IOException e)
+			{
+				System.out.println("Couldn't read GTK settings " + path + ": " + e.getMessage());
+			}
 		}
-		catch(Exception e)
+
+		return false;
+	}
+
+	private static boolean isGsettingsDark()
+	{
+		for(String[] cmd : GET_CMD)
 		{
-			System.out.println("Couldn't detect GNOME theme");
-			e.printStackTrace();
+			String readLine = readFirstLine(cmd);
+			if(readLine != null && darkThemeNamePattern.matcher(readLine).matches())
+			{
+				return true;
+			}
 		}
+
 		return false;
 	}
+
+	private static String readFirstLine(String... command)
+	{
+		try
+		{
+			Process process = new ProcessBuilder(command)
+					.redirectError(ProcessBuilder.Redirect.DISCARD)
+					.start();
+
+			// The reply is a line or two and fits in the pipe, so waiting before reading can't deadlock.
+			// Reading first would block for good on a tool that hangs without printing anything.
+			if(!process.waitFor(PROCESS_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+			{
+				process.destroyForcibly();
+				return null;
+			}
+
+			try(BufferedReader reader = process.inputReader())
+			{
+				return reader.readLine();
+			}
+		}
+		catch(IOException e)
+		{
+			// The tool isn't installed on this desktop
+			return null;
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	private static void loadCache()
+	{
+		if(cacheLoaded)
+		{
+			return;
+		}
+
+		synchronized(cacheLock)
+		{
+			if(cacheLoaded)
+			{
+				return;
+			}
+
+			File cacheFile = new File(Config.getConfigHome(), CACHE_FILE);
+			if(cacheFile.isFile())
+			{
+				Properties props = new Properties();
+				try(FileReader reader = new FileReader(cacheFile, StandardCharsets.UTF_8))
+				{
+					props.load(reader);
+					detectedAt = Long.parseLong(props.getProperty("detected_at", "0"));
+					dark = Boolean.parseBoolean(props.getProperty("dark", "false"));
+				}
+				catch(IOException | NumberFormatException e)
+				{
+					System.out.println("Ignoring unreadable theme cache: " + e.getMessage());
+				}
+			}
+
+			cacheLoaded = true;
+		}
+	}
+
+	private static void saveCache(boolean isDark, long timestamp)
+	{
+		Properties props = new Properties();
+		props.put("dark", Boolean.toString(isDark));
+		props.put("detected_at", Long.toString(timestamp));
+
+		File cacheFile = new File(Config.getConfigHome(), CACHE_FILE);
+		File cacheDir = cacheFile.getParentFile();
+		if(!cacheDir.exists() && !cacheDir.mkdirs())
+		{
+			return;
+		}
+
+		try(FileWriter writer = new FileWriter(cacheFile, StandardCharsets.UTF_8))
+		{
+			props.store(writer, "PokeMMO Unix Installer theme cache");
+		}
+		catch(IOException e)
+		{
+			System.out.println("Failed to save theme cache: " + e.getMessage());
+		}
+	}
 }
\ No newline at end of file
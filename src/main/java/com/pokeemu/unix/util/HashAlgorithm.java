@@ -0,0 +1,51 @@
+package com.pokeemu.unix.util;
+
+import java.io.File;
+import java.util.zip.CRC32C;
+
+public enum HashAlgorithm implements HashStrategy
+{
+	SHA256("sha256", true)
+	{
+		@Override
+		public String calculate(File file)
+		{
+			return Util.calculateHash("SHA-256", file);
+		}
+	},
+	/**
+	 * Hardware accelerated on SSE4.2 and ARMv8 CPUs, several times faster than SHA-256 on CPUs without SHA extensions.
+	 * Only detects accidental corruption, so it is used for routine re-verification and never to accept a download.
+	 */
+	CRC32C("crc32c", false)
+	{
+		@Override
+		public String calculate(File file)
+		{
+			return Util.calculateChecksum(new CRC32C(), file);
+		}
+	};
+
+	public static final HashAlgorithm[] FAST_ALGORITHMS = {CRC32C};
+
+	private final String feed_attribute;
+	private final boolean authoritative;
+
+	HashAlgorithm(String feed_attribute, boolean authoritative)
+	{
+		this.feed_attribute = feed_attribute;
+		this.authoritative = authoritative;
+	}
+
+	@Override
+	public String getFeedAttribute()
+	{
+		return feed_attribute;
+	}
+
+	@Override
+	public boolean isAuthoritative()
+	{
+		return authoritative;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,25 @@
+package com.pokeemu.unix.util;
+
+import java.io.File;
+
+/**
+ * A way of fingerprinting an installed file. Implementations are interchangeable so they can be
+ * benchmarked against each other; only authoritative ones may be used to accept a download.
+ */
+public interface HashStrategy
+{
+	/**
+	 * @return the name of the update feed {@code <file>} attribute carrying this hash
+	 */
+	String getFeedAttribute();
+
+	/**
+	 * @return true if the hash is collision resistant and may be trusted after download and signature validation
+	 */
+	boolean isAuthoritative();
+
+	/**
+	 * @return the lowercase hex digest of the file, or an error marker which never matches a real digest
+	 */
+	String calculate(File file);
+}
\ No newline at end of file
@@ -0,0 +1,261 @@
+package com.pokeemu.unix.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Validates many relative paths against one base directory, e.g. every file of an update feed.
+ * <p>
+ * The base is canonicalised once and every directory checked on disk is remembered in a trie, along with the
+ * names it holds. Entries sharing directories then only pay for their own last component, and nothing at all
+ * when it doesn't exist yet. An entry is accepted when it stays inside the base lexically
+ * and none of its existing components - the directories or the file itself - resolves outside the canonical base,
+ * however many symbolic links that takes.
+ * <p>
+ * Not thread safe, the trie reflects the disk at the time each directory was first seen.
+ */
+public final class PathSanitizer
+{
+	// Linux's MAXSYMLINKS
+	private static final int MAX_LINK_HOPS = 40;
+
+	private static final class DirectoryNode
+	{
+		// Nothing at this path, so nothing below it can be a link out of the base
+		private final boolean absent;
+		private final Map<String, DirectoryNode> children = new HashMap<>();
+		// Listed on first use, null if the directory couldn't be read
+		private Set<String> names;
+		private boolean listed;
+
+		private DirectoryNode(boolean absent)
+		{
+			this.absent = absent;
+		}
+
+		/**
+		 * @return false only if the name is known not to exist, which saves a failing lstat per new file
+		 */
+		private boolean mayContain(Path path, String name)
+		{
+			if(!listed)
+			{
+				listed = true;
+				try(DirectoryStream<Path> stream = Files.newDirectoryStream(path))
+				{
+					names = new HashSet<>();
+					for(Path child : stream)
+					{
+						names.add(child.getFileName().toString());
+					}
+				}
+				catch(IOException e)
+				{
+					names = null;
+				}
+			}
+
+			return names == null || names.contains(name);
+		}
+	}
+
+	private final Path basePath;
+	// Null when the base can't be resolved, entries then only get the lexical check
+	private final Path canonicalBase;
+	private final DirectoryNode root;
+
+	public PathSanitizer(File dir)
+	{
+		this.basePath = dir.toPath().toAbsolutePath().normalize();
+
+		Path canonical;
+		try
+		{
+			canonical = basePath.toRealPath();
+		}
+		catch(IOException e)
+		{
+			canonical = null;
+		}
+
+		this.canonicalBase = canonical;
+		this.root = new DirectoryNode(canonical == null);
+	}
+
+	/**
+	 * @return the entry relative to the base, or null if it is unsafe
+	 */
+	public String sanitize(String entry)
+	{
+		if(entry == null || entry.isEmpty())
+		{
+			return null;
+		}
+
+		if(new File(entry).isAbsolute())
+		{
+			System.err.println("Rejected absolute path: " + entry);
+			return null;
+		}
+
+		if(entry.contains("..") || entry.contains("~") ||
+				entry.startsWith("/") || entry.startsWith("\\"))
+		{
+			System.err.println("Rejected suspicious path pattern: " + entry);
+			return null;
+		}
+
+		try
+		{
+			Path entryPath = basePath.resolve(entry).normalize();
+			if(!entryPath.startsWith(basePath) || entryPath.equals(basePath))
+			{
+				System.err.println("Path traversal detected: " + entry + " resolves outside base directory");
+				return null;
+			}
+
+			Path relative = basePath.relativize(entryPath);
+			int last = relative.getNameCount() - 1;
+
+			Path currentPath = basePath;
+			DirectoryNode node = root;
+			for(int i = 0; i < last && !node.absent; i++)
+			{
+				String component = relative.getName(i).toString();
+				currentPath = currentPath.resolve(component);
+
+				DirectoryNode child = node.children.get(component);
+				if(child == null)
+				{
+					child = node.mayContain(currentPath.getParent(), component)
+							? checkDirectory(currentPath)
+							: new DirectoryNode(true);
+					if(child == null)
+					{
+						System.err.println("Symbolic link escapes base directory: " + currentPath);
+						return null;
+					}
+					node.children.put(component, child);
+				}
+				node = child;
+			}
+
+			if(!node.absent && node.mayContain(currentPath, relative.getName(last).toString())
+					&& !staysInside(entryPath, readAttributes(entryPath)))
+			{
+				System.err.println("Symbolic link escapes base directory: " + entryPath);
+				return null;
+			}
+
+			return relative.toString();
+		}
+		catch(Exception e)
+		{
+			System.err.println("Failed to sanitize path: " + entry + " - " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return the node for the directory, null if it resolves outside the base
+	 */
+	private DirectoryNode checkDirectory(Path path) throws IOException
+	{
+		BasicFileAttributes attributes = readAttributes(path);
+		if(attributes == null || !(attributes.isDirectory() || attributes.isSymbolicLink()))
+		{
+			// Nothing there, or a file which nothing can be below
+			return new DirectoryNode(true);
+		}
+
+		return staysInside(path, attributes) ? new DirectoryNode(false) : null;
+	}
+
+	/**
+	 * @return the attributes of the path itself, not of what it links to, null if there is nothing at the path
+	 */
+	private static BasicFileAttributes readAttributes(Path path) throws IOException
+	{
+		try
+		{
+			return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		}
+		catch(NoSuchFileException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Only a symbolic link costs more than the lstat already done, it is followed to its final target
+	 */
+	private boolean staysInside(Path path, BasicFileAttributes attributes) throws IOException
+	{
+		if(attributes == null || !attributes.isSymbolicLink())
+		{
+			return true;
+		}
+
+		try
+		{
+			return path.toRealPath().startsWith(canonicalBase);
+		}
+		catch(NoSuchFileException e)
+		{
+			return danglingStaysInside(path);
+		}
+	}
+
+	/**
+	 * A dangling link would be written through to wherever it points, so its chain is followed one hop at a time.
+	 * The part of each target that exists is canonicalised, it may go through further links itself.
+	 */
+	private boolean danglingStaysInside(Path link) throws IOException
+	{
+		Path current = link;
+		for(int hop = 0; hop < MAX_LINK_HOPS; hop++)
+		{
+			Path target = current.getParent().resolve(Files.readSymbolicLink(current)).normalize();
+
+			Path existing = target;
+			while(existing != null && !Files.exists(existing))
+			{
+				existing = existing.getParent();
+			}
+
+			if(existing == null)
+			{
+				return false;
+			}
+
+			Path realExisting = existing.toRealPath();
+			if(!realExisting.startsWith(canonicalBase))
+			{
+				return false;
+			}
+
+			// The first missing component is either nothing, created inside the base, or the next dangling link
+			Path next = realExisting.resolve(existing.relativize(target).getName(0));
+			BasicFileAttributes attributes = readAttributes(next);
+			if(attributes == null || !attributes.isSymbolicLink())
+			{
+				return true;
+			}
+
+			current = next;
+		}
+
+		// Most likely a loop, the kernel gives up at the same depth
+		return false;
+	}
+}
\ No newline at end of file
@@ -1,11 +1,7 @@
 package com.pokeemu.unix.util;
 
-import java.awt.*;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.awt.Desktop;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -13,28 +9,48 @@ import java.net.URISyntaxException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Formatter;
-import java.util.Locale;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
+import java.util.function.LongConsumer;
+import java.util.zip.Checksum;
 
 import com.pokeemu.unix.LauncherUtils;
 
 public class Util
 {
-	private static final boolean desktopBrowseSupported, desktopOpenSupported;
-
-	static
+	private static final int HASH_FILE_BUFFER_SIZE = 1024 * 1024;
+	private static final int HASH_STREAM_BUFFER_SIZE = 64 * 1024;
+	private static final HexFormat HEX_FORMAT = HexFormat.of();
+
+	// Shared rather than per thread: hashing runs on short-lived pools and virtual threads, each of which would
+	// otherwise pin its own direct buffer until the next GC. Beyond one per core, extra buffers are just dropped.
+	private static final BlockingQueue<ByteBuffer> hashBuffers =
+			new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+	private static final ThreadLocal<Map<String, MessageDigest>> digests = ThreadLocal.withInitial(HashMap::new);
+
+	/**
+	 * Holder so AWT is only loaded once something is actually opened, never on the headless launch path
+	 */
+	private static final class DesktopSupport
 	{
-		desktopBrowseSupported = Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(Desktop.Action.BROWSE);
-		desktopOpenSupported = Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(Desktop.Action.OPEN);
+		private static final boolean browseSupported = isSupported(Desktop.Action.BROWSE);
+		private static final boolean openSupported = isSupported(Desktop.Action.OPEN);
+
+		private static boolean isSupported(Desktop.Action action)
+		{
+			return Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(action);
+		}
 	}
 
 	public static void open(File file)
@@ -45,7 +61,7 @@ public class Util
 		}
 
 		new Thread(() -> {
-			if(desktopOpenSupported)
+			if(DesktopSupport.openSupported)
 			{
 				try
 				{
@@ -71,7 +87,7 @@ public class Util
 		}
 
 		new Thread(() -> {
-			if(desktopBrowseSupported)
+			if(DesktopSupport.browseSupported)
 			{
 				try
 				{
@@ -106,6 +122,17 @@ public class Util
 		}
 	}
 
+	private static ByteBuffer acquireHashBuffer()
+	{
+		ByteBuffer buffer = hashBuffers.poll();
+		return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(HASH_FILE_BUFFER_SIZE);
+	}
+
+	private static void releaseHashBuffer(ByteBuffer buffer)
+	{
+		hashBuffers.offer(buffer);
+	}
+
 	public static String calculateHash(String digestType, File file)
 	{
 		if(digestType.equalsIgnoreCase("sha256"))
@@ -118,9 +145,29 @@ public class Util
 			return "FILE_DOESNT_EXIST";
 		}
 
-		try(FileInputStream fis = new FileInputStream(file))
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			MessageDigest algorithm = getDigest(digestType);
+			ByteBuffer buffer = acquireHashBuffer();
+			try
+			{
+				while(channel.read(buffer) != -1)
+				{
+					buffer.flip();
+					algorithm.update(buffer);
+					buffer.clear();
+				}
+			}
+			finally
+			{
+				releaseHashBuffer(buffer);
+			}
+
+			return byteArray2Hex(algorithm.digest());
+		}
+		catch(NoSuchAlgorithmException e)
 		{
-			return calculateHash(digestType, fis);
+			return "Invalid Hash Algo";
 		}
 		catch(Exception e)
 		{
@@ -128,20 +175,41 @@ public class Util
 		}
 	}
 
-	public static String calculateHash(String digestType, InputStream input)
+	/**
+	 * Hashes a slice of an open file using positional reads, so several slices may be hashed concurrently
+	 */
+	public static String calculateHash(String digestType, FileChannel channel, long position, long length)
 	{
 		try
 		{
-			MessageDigest algorithm = MessageDigest.getInstance(digestType);
-			BufferedInputStream bis = new BufferedInputStream(input);
-			DigestInputStream dis = new DigestInputStream(bis, algorithm);
+			MessageDigest algorithm = getDigest(digestType);
+			ByteBuffer buffer = acquireHashBuffer();
+			long end = position + length;
 
-			byte[] buffer = new byte[4096];
-			while(dis.read(buffer) != -1) ;
+			try
+			{
+				while(position < end)
+				{
+					buffer.clear();
+					buffer.limit((int) Math.min(buffer.capacity(), end - position));
 
-			byte[] hash = algorithm.digest();
+					int read = channel.read(buffer, position);
+					if(read == -1)
+					{
+						return "ERROR CALCULATING";
+					}
 
-			return byteArray2Hex(hash);
+					buffer.flip();
+					algorithm.update(buffer);
+					position += read;
+				}
+			}
+			finally
+			{
+				releaseHashBuffer(buffer);
+			}
+
+			return byteArray2Hex(algorithm.digest());
 		}
 		catch(NoSuchAlgorithmException e)
 		{
@@ -153,171 +221,160 @@ public class Util
 		}
 	}
 
-	public static String byteArray2Hex(byte[] hash)
+	/**
+	 * Non-cryptographic counterpart of {@link #calculateHash(String, File)}, formatted as 8 hex digits
+	 */
+	public static String calculateChecksum(Checksum checksum, File file)
 	{
-		Formatter formatter = new Formatter();
-		for(byte b : hash)
+		if(!file.exists() || !file.isFile())
 		{
-			formatter.format("%02x", b);
+			return "FILE_DOESNT_EXIST";
 		}
-		String result = formatter.toString().toLowerCase();
-		formatter.close();
-		return result;
-	}
 
-	public static String sanitize(final File dir, final String entry)
-	{
-		if(entry == null || entry.isEmpty())
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
 		{
-			return null;
-		}
+			ByteBuffer buffer = acquireHashBuffer();
+			try
+			{
+				while(channel.read(buffer) != -1)
+				{
+					buffer.flip();
+					checksum.update(buffer);
+					buffer.clear();
+				}
+			}
+			finally
+			{
+				releaseHashBuffer(buffer);
+			}
 
-		if(new File(entry).isAbsolute())
-		{
-			System.err.println("Rejected absolute path: " + entry);
-			return null;
+			return HEX_FORMAT.toHexDigits((int) checksum.getValue());
 		}
-
-		if(entry.contains("..") || entry.contains("~") ||
-				entry.startsWith("/") || entry.startsWith("\\"))
+		catch(Exception e)
 		{
-			System.err.println("Rejected suspicious path pattern: " + entry);
-			return null;
+			return "ERROR CALCULATING";
 		}
+	}
 
+	public static String calculateHash(String digestType, InputStream input)
+	{
 		try
 		{
-			Path basePath = dir.toPath().toAbsolutePath().normalize();
-			Path entryPath = basePath.resolve(entry).normalize();
+			MessageDigest algorithm = getDigest(digestType);
+			DigestInputStream dis = new DigestInputStream(input, algorithm);
 
-			Path canonicalBase = basePath.toRealPath();
-			Path canonicalEntry;
-
-			if(Files.exists(entryPath))
-			{
-				canonicalEntry = entryPath.toRealPath();
-			}
-			else
-			{
-				Path parent = entryPath.getParent();
-				if(parent != null && Files.exists(parent))
-				{
-					Path canonicalParent = parent.toRealPath();
-					if(!canonicalParent.startsWith(canonicalBase))
-					{
-						System.err.println("Path traversal detected (parent check): " + entry);
-						return null;
-					}
-				}
-				canonicalEntry = entryPath;
-			}
-
-			if(!canonicalEntry.startsWith(canonicalBase))
-			{
-				System.err.println("Path traversal detected: " + entry + " resolves outside base directory");
-				return null;
-			}
-
-			Path currentPath = basePath;
-			for(Path component : basePath.relativize(entryPath))
-			{
-				currentPath = currentPath.resolve(component);
-				if(Files.exists(currentPath) && Files.isSymbolicLink(currentPath))
-				{
-					Path target = Files.readSymbolicLink(currentPath);
-					Path resolvedTarget = currentPath.getParent().resolve(target).normalize();
-					if(!resolvedTarget.startsWith(canonicalBase))
-					{
-						System.err.println("Symbolic link escapes base directory: " + currentPath);
-						return null;
-					}
-				}
-			}
+			byte[] buffer = new byte[HASH_STREAM_BUFFER_SIZE];
+			while(dis.read(buffer) != -1) ;
 
-			return basePath.relativize(entryPath).toString();
+			byte[] hash = algorithm.digest();
 
+			return byteArray2Hex(hash);
 		}
-		catch(IOException e)
+		catch(NoSuchAlgorithmException e)
 		{
-			try
-			{
-				Path basePath = dir.toPath().toAbsolutePath().normalize();
-				Path entryPath = basePath.resolve(entry).normalize();
+			return "Invalid Hash Algo";
+		}
+		catch(Exception e)
+		{
+			return "ERROR CALCULATING";
+		}
+	}
 
-				if(!entryPath.startsWith(basePath))
-				{
-					System.err.println("Path traversal detected (string check): " + entry);
-					return null;
-				}
+	/**
+	 * Digests are not thread-safe but are costly to look up, so each thread keeps its own per algorithm
+	 */
+	private static MessageDigest getDigest(String digestType) throws NoSuchAlgorithmException
+	{
+		Map<String, MessageDigest> threadDigests = digests.get();
+		MessageDigest algorithm = threadDigests.get(digestType);
 
-				return basePath.relativize(entryPath).toString();
-			}
-			catch(Exception ex)
-			{
-				System.err.println("Failed to sanitize path: " + entry + " - " + ex.getMessage());
-				return null;
-			}
+		if(algorithm == null)
+		{
+			algorithm = MessageDigest.getInstance(digestType);
+			threadDigests.put(digestType, algorithm);
 		}
-		catch(Exception e)
+		else
 		{
-			System.err.println("Failed to sanitize path: " + entry + " - " + e.getMessage());
-			return null;
+			algorithm.reset();
 		}
+
+		return algorithm;
 	}
 
-	public static CompletableFuture<HttpResponse<InputStream>> getUrlAsync(HttpClient httpClient, String rawUrl) throws URISyntaxException
+	public static String byteArray2Hex(byte[] hash)
 	{
-		HttpRequest httpRequest = HttpRequest.newBuilder(new URI(rawUrl))
-				.setHeader("User-Agent", LauncherUtils.httpClientUserAgent)
-				.GET()
-				.build();
+		return HEX_FORMAT.formatHex(hash);
+	}
 
-		return httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
+	/**
+	 * Validates a single entry, use a {@link PathSanitizer} directly for many entries under the same directory
+	 */
+	public static String sanitize(final File dir, final String entry)
+	{
+		return new PathSanitizer(dir).sanitize(entry);
 	}
 
-	public static HttpResponse<InputStream> downloadFile(HttpClient httpClient, String rawUrl) throws URISyntaxException, IOException, InterruptedException
+	public static CompletableFuture<HttpResponse<InputStream>> getUrlAsync(HttpClient httpClient, String rawUrl) throws URISyntaxException
 	{
 		HttpRequest httpRequest = HttpRequest.newBuilder(new URI(rawUrl))
 				.setHeader("User-Agent", LauncherUtils.httpClientUserAgent)
-				.setHeader("Accept-Encoding", "gzip, deflate")
 				.GET()
 				.build();
 
-		return httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
+		return httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
 	}
 
-	public static boolean downloadUrlToFile(HttpClient httpClient, String rawUrl, File file)
+	/**
+	 * Downloads a byte range of a file into the given channel at the same offset.
+	 * Content encoding is not requested, as ranges of an encoded response are not ranges of the file.
+	 *
+	 * @return false if the server didn't honour the range, answered with a different one or the transfer was short
+	 */
+	public static boolean downloadUrlRangeToChannel(HttpClient httpClient, String rawUrl, long position, long length,
+													FileChannel channel)
 	{
+		long last = position + length - 1;
 		try
 		{
-			rawUrl = rawUrl.replace("\\", "/");
-
-			HttpResponse<InputStream> downloadResponse = downloadFile(httpClient, rawUrl);
-			String encoding = downloadResponse.headers().firstValue("Content-Encoding").orElse("");
+			HttpRequest httpRequest = HttpRequest.newBuilder(new URI(rawUrl.replace("\\", "/")))
+					.setHeader("User-Agent", LauncherUtils.httpClientUserAgent)
+					.setHeader("Range", "bytes=" + position + "-" + last)
+					.GET()
+					.build();
 
-			InputStream resultingInputStream;
-			InputStream rawInputStream = downloadResponse.body();
+			HttpResponse<InputStream> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
 
-			switch(encoding.toLowerCase(Locale.ROOT))
+			try(InputStream in = response.body())
 			{
-				case "gzip" -> resultingInputStream = new GZIPInputStream(rawInputStream);
-				case "deflate" -> resultingInputStream = new InflaterInputStream(rawInputStream, new Inflater(true));
-				default -> resultingInputStream = rawInputStream;
-			}
+				if(response.statusCode() != 206)
+				{
+					return false;
+				}
 
-			try(BufferedInputStream in = new BufferedInputStream(resultingInputStream);
-				BufferedOutputStream bout = new BufferedOutputStream(new FileOutputStream(file), 1024))
-			{
-				byte[] data = new byte[1024];
+				// Written at the requested offset, bytes of any other range would corrupt the file
+				String contentRange = response.headers().firstValue("Content-Range").orElse(null);
+				if(!isContentRange(contentRange, position, last))
+				{
+					System.err.println("Requested bytes " + position + "-" + last + " of " + rawUrl
+							+ ", got " + contentRange);
+					return false;
+				}
+
+				byte[] data = new byte[HASH_STREAM_BUFFER_SIZE];
+				long written = 0;
 				int x;
 
-				while((x = in.read(data, 0, 1024)) >= 0)
+				while(written < length && (x = in.read(data, 0, (int) Math.min(data.length, length - written))) >= 0)
 				{
-					bout.write(data, 0, x);
+					ByteBuffer buffer = ByteBuffer.wrap(data, 0, x);
+					while(buffer.hasRemaining())
+					{
+						written += channel.write(buffer, position + written);
+					}
 				}
-			}
 
-			return true;
+				return written == length;
+			}
 		}
 		catch(Exception e)
 		{
@@ -325,4 +382,57 @@ public class Util
 			return false;
 		}
 	}
+
+	/**
+	 * @param header a Content-Range header, such as "bytes 0-499/1234"
+	 * @return true if the header covers exactly the bytes from first to last, inclusive
+	 */
+	private static boolean isContentRange(String header, long first, long last)
+	{
+		if(header == null || !header.startsWith("bytes "))
+		{
+			return false;
+		}
+
+		int dash = header.indexOf('-', 6);
+		int slash = header.indexOf('/', dash + 1);
+		if(dash < 0 || slash < 0)
+		{
+			return false;
+		}
+
+		try
+		{
+			long start = Long.parseLong(header.substring(6, dash).trim());
+			long end = Long.parseLong(header.substring(dash + 1, slash).trim());
+			String total = header.substring(slash + 1).trim();
+
+			return start == first && end == last && (total.equals("*") || Long.parseLong(total) > end);
+		}
+		catch(NumberFormatException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Downloads a file, the body is decoded, hashed and written without a thread waiting on the transfer
+	 *
+	 * @param progress told the number of bytes written as the transfer goes, on the file I/O threads
+	 * @return completes with the sha256 and size of the file, or null if the server didn't answer with it
+	 */
+	public static CompletableFuture<FileDownloadSubscriber.Result> downloadUrlToFileAsync(HttpClient httpClient,
+																						  String rawUrl, Path file,
+																						  LongConsumer progress)
+			throws URISyntaxException
+	{
+		HttpRequest httpRequest = HttpRequest.newBuilder(new URI(rawUrl.replace("\\", "/")))
+				.setHeader("User-Agent", LauncherUtils.httpClientUserAgent)
+				.setHeader("Accept-Encoding", "gzip, deflate")
+				.GET()
+				.build();
+
+		return httpClient.sendAsync(httpRequest, FileDownloadSubscriber.toFile(file, progress))
+				.thenApply(HttpResponse::body);
+	}
 }
\ No newline at end of file
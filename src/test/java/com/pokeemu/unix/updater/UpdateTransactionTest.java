@@ -0,0 +1,79 @@
+package com.pokeemu.unix.updater;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpdateTransactionTest
+{
+	@TempDir
+	Path installDir;
+
+	@TempDir
+	Path downloadDir;
+
+	@Test
+	void cleanRollbackRestoresLiveFiles() throws IOException
+	{
+		Files.writeString(installDir.resolve("a"), "old");
+		// A live file where the update needs a directory fails the second entry
+		Files.writeString(installDir.resolve("b"), "blocker");
+
+		UpdateTransaction transaction = new UpdateTransaction(installDir);
+		transaction.begin();
+		transaction.stage("a", download("a", "new"));
+		transaction.stage("b/c", download("c", "new"));
+
+		assertThrows(IOException.class, transaction::commit);
+
+		assertEquals("old", Files.readString(installDir.resolve("a"), StandardCharsets.UTF_8));
+		assertEquals("blocker", Files.readString(installDir.resolve("b"), StandardCharsets.UTF_8));
+		assertFalse(Files.exists(installDir.resolve(".update-journal")));
+		assertFalse(Files.exists(installDir.resolve(".update-staging")));
+	}
+
+	@Test
+	void failedRestoreKeepsBackupAndJournal() throws IOException
+	{
+		Files.writeString(installDir.resolve("a"), "old");
+		Files.writeString(installDir.resolve("b"), "blocker");
+
+		// Swapped in as a non-empty directory, moving the backed up file over it again fails
+		Path replacement = downloadDir.resolve("replacement");
+		Files.createDirectories(replacement);
+		Files.writeString(replacement.resolve("inner"), "new");
+
+		UpdateTransaction transaction = new UpdateTransaction(installDir);
+		transaction.begin();
+		transaction.stage("a", replacement);
+		transaction.stage("b/c", download("c", "new"));
+
+		assertThrows(IOException.class, transaction::commit);
+
+		Path backup = installDir.resolve(".update-staging").resolve(".backup").resolve("a");
+		assertTrue(Files.exists(backup));
+		assertEquals("old", Files.readString(backup, StandardCharsets.UTF_8));
+		assertTrue(Files.exists(installDir.resolve(".update-journal")));
+
+		// The staging area is released, the next start may pick it up
+		UpdateTransaction next = new UpdateTransaction(installDir);
+		assertThrows(IOException.class, next::begin);
+		assertTrue(Files.exists(backup));
+	}
+
+	private Path download(String name, String content) throws IOException
+	{
+		Path file = downloadDir.resolve(name);
+		Files.writeString(file, content);
+		return file;
+	}
+}